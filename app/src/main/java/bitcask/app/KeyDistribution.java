@@ -0,0 +1,90 @@
+package bitcask.app;
+
+import java.util.SplittableRandom;
+
+/**
+ * Picks keys, numbered from 0 to the key count, for the load generator.
+ */
+public abstract class KeyDistribution {
+    protected final long keys;
+
+    private KeyDistribution(final long keys) {
+        if (keys < 1) throw new IllegalArgumentException("no keys");
+        this.keys = keys;
+    }
+
+    public abstract long next(SplittableRandom random);
+
+    public static KeyDistribution uniform(final long keys) {
+        return new KeyDistribution(keys) {
+            @Override
+            public long next(final SplittableRandom random) {
+                return random.nextLong(this.keys);
+            }
+        };
+    }
+
+    /**
+     * The Zipfian distribution of YCSB (Gray et al., "Quickly generating billion-record synthetic databases"), where
+     * the key of rank r is drawn with a probability proportional to 1 / (r + 1)^theta. The ranks are scrambled over
+     * the key space, so that the hot keys are not neighbours.
+     */
+    public static KeyDistribution zipfian(final long keys, final double theta) {
+        return new Zipfian(keys, theta);
+    }
+
+    public static final double DEFAULT_THETA = 0.99;
+
+    public static KeyDistribution parse(final String name, final long keys) {
+        switch (name) {
+            case "uniform":
+                return uniform(keys);
+            case "zipfian":
+                return zipfian(keys, DEFAULT_THETA);
+            default:
+                throw new IllegalArgumentException("unknown distribution " + name);
+        }
+    }
+
+    private static final class Zipfian extends KeyDistribution {
+        private final double theta;
+        private final double zetan;
+        private final double alpha;
+        private final double eta;
+
+        private Zipfian(final long keys, final double theta) {
+            super(keys);
+            if (theta <= 0 || theta >= 1) throw new IllegalArgumentException("theta must be in (0, 1)");
+            this.theta = theta;
+            this.zetan = zeta(keys, theta);
+            this.alpha = 1 / (1 - theta);
+            this.eta = (1 - Math.pow(2.0 / keys, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+        }
+
+        private static double zeta(final long n, final double theta) {
+            double sum = 0;
+            for (long i = 1; i <= n; i++) sum += 1 / Math.pow(i, theta);
+            return sum;
+        }
+
+        long rank(final SplittableRandom random) {
+            final double u = random.nextDouble();
+            final double uz = u * zetan;
+            if (uz < 1) return 0;
+            if (uz < 1 + Math.pow(0.5, theta)) return Math.min(1, keys - 1);
+            return Math.min((long) (keys * Math.pow(eta * u - eta + 1, alpha)), keys - 1);
+        }
+
+        @Override
+        public long next(final SplittableRandom random) {
+            // FNV-1a over the bytes of the rank
+            long hash = 0xCBF29CE484222325L;
+            long rank = rank(random);
+            for (int i = 0; i < 8; i++) {
+                hash = (hash ^ (rank & 0xFF)) * 0x100000001B3L;
+                rank >>>= 8;
+            }
+            return Math.floorMod(hash, keys);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package bitcask.app;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A closed-loop load generator: every thread issues one operation at a time against its target, and records the
+ * latency of each operation in a histogram.
+ *
+ * With a target rate, every thread schedules its operations at fixed intervals, and the latency of an operation is
+ * measured from its scheduled start rather than from the moment it was sent. A stall of the store then counts
+ * against all the operations that should have been sent during it, instead of hiding them (coordinated omission).
+ * Without a target rate, the threads run as fast as they can, and the latencies are service times.
+ */
+public final class LoadGenerator {
+    /**
+     * A store under load. The threads share the targets when there are fewer targets than threads, so a target must
+     * be thread safe.
+     */
+    public interface Target {
+        byte[] get(byte[] key) throws Exception;
+
+        void put(byte[] key, byte[] value) throws Exception;
+    }
+
+    private final Target[] targets;
+    private final int threads;
+    private final KeyDistribution keys;
+    private final double readRatio;
+    private final int valueSize;
+    private final long durationNanos;
+    private final long rate;
+
+    /**
+     * @param targets the targets, e.g., one per connection, which the threads share round-robin
+     * @param readRatio the fraction of the operations that are gets, the rest are puts
+     * @param rate the target number of operations per second of all the threads, 0 for as fast as possible
+     */
+    public LoadGenerator(final Target[] targets, final int threads, final KeyDistribution keys, final double readRatio,
+                         final int valueSize, final long durationMs, final long rate) {
+        if (targets.length == 0 || threads < 1) throw new IllegalArgumentException("no targets or threads");
+        this.targets = targets;
+        this.threads = threads;
+        this.keys = keys;
+        this.readRatio = readRatio;
+        this.valueSize = valueSize;
+        this.durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMs);
+        this.rate = rate;
+    }
+
+    public static final class Report {
+        public final Histogram reads = new Histogram(3);
+        public final Histogram writes = new Histogram(3);
+        public final long errors;
+        public final long elapsedNanos;
+
+        private Report(final long errors, final long elapsedNanos) {
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long operations() {
+            return reads.getTotalCount() + writes.getTotalCount();
+        }
+
+        public double throughput() {
+            return operations() * 1e9 / elapsedNanos;
+        }
+
+        private static void print(final PrintStream out, final String name, final Histogram histogram) {
+            if (histogram.getTotalCount() == 0) return;
+            out.printf("%-6s %10d ops  p50 %10.1f us  p99 %10.1f us  p999 %10.1f us  max %10.1f us%n", name,
+                    histogram.getTotalCount(), histogram.getValueAtPercentile(50) / 1e3,
+                    histogram.getValueAtPercentile(99) / 1e3, histogram.getValueAtPercentile(99.9) / 1e3,
+                    histogram.getMaxValue() / 1e3);
+        }
+
+        public void print(final PrintStream out) {
+            out.printf("%d ops in %.1f s, %.0f ops/s, %d errors%n", operations(), elapsedNanos / 1e9, throughput(), errors);
+            print(out, "get", reads);
+            print(out, "put", writes);
+        }
+    }
+
+    private static final class Worker extends Thread {
+        private final Histogram reads = new Histogram(3);
+        private final Histogram writes = new Histogram(3);
+        private long errors = 0;
+        private final LoadGenerator load;
+        private final Target target;
+        private final long seed;
+        private final long start;
+
+        private Worker(final LoadGenerator load, final int id, final long start) {
+            super("bitcask-load-" + id);
+            this.load = load;
+            this.target = load.targets[id % load.targets.length];
+            this.seed = System.nanoTime() + id;
+            this.start = start;
+        }
+
+        @Override
+        public void run() {
+            final SplittableRandom random = new SplittableRandom(seed);
+            final byte[] value = new byte[load.valueSize];
+            for (int i = 0; i < value.length; i++) value[i] = (byte) random.nextInt();
+            final long interval = load.rate > 0 ? Math.max(TimeUnit.SECONDS.toNanos(load.threads) / load.rate, 1) : 0;
+            // the threads start at different offsets of the interval, so they do not send in bursts
+            long scheduled = start + (interval > 0 ? random.nextLong(interval) : 0);
+            final long end = start + load.durationNanos;
+            while (true) {
+                long now = System.nanoTime();
+                if (interval > 0) {
+                    while (now < scheduled) {
+                        LockSupport.parkNanos(scheduled - now);
+                        now = System.nanoTime();
+                    }
+                } else {
+                    scheduled = now;
+                }
+                if (scheduled >= end) break;
+                final byte[] key = ("key" + load.keys.next(random)).getBytes(UTF_8);
+                final boolean read = random.nextDouble() < load.readRatio;
+                try {
+                    if (read) target.get(key);
+                    else target.put(key, value);
+                    (read ? reads : writes).recordValue(System.nanoTime() - scheduled);
+                } catch (final Exception e) {
+                    errors++;
+                }
+                scheduled += interval;
+            }
+        }
+    }
+
+    public Report run() throws InterruptedException {
+        final long start = System.nanoTime();
+        final Worker[] workers = new Worker[threads];
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(this, i, start);
+            workers[i].setUncaughtExceptionHandler((thread, e) -> failure.compareAndSet(null, e));
+            workers[i].start();
+        }
+        long errors = 0;
+        for (final Worker worker : workers) {
+            worker.join();
+            errors += worker.errors;
+        }
+        if (failure.get() != null) throw new IllegalStateException("load thread failed", failure.get());
+        final Report report = new Report(errors, System.nanoTime() - start);
+        for (final Worker worker : workers) {
+            report.reads.add(worker.reads);
+            report.writes.add(worker.writes);
+        }
+        return report;
+    }
+}
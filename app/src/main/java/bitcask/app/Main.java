@@ -1,19 +1,30 @@
 package bitcask.app;
 
+import bitcask.BitcaskOptions;
 import bitcask.KVStoreRemote;
 import bitcask.KVStoreStub;
+import bitcask.KeyIndex;
+import bitcask.Metrics;
+import bitcask.SyncPolicy;
+import bitcask.server.BinaryClient;
+import bitcask.server.BinaryServer;
+import bitcask.server.NioServer;
+import bitcask.server.RespServer;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import sun.jvm.hotspot.code.Stub;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Random;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 public class Main {
     private static final Logger LOG = LoggerFactory.getLogger(Main.class);
 
@@ -25,6 +36,47 @@ public class Main {
         options.addOption(server);
         final Option client = new Option("c", "client", false, "client mode");
         options.addOption(client);
+        final Option binaryPort = new Option("b", "binary-port", true,
+                "port of the binary protocol server, started next to RMI in server mode and used instead of RMI in client mode");
+        options.addOption(binaryPort);
+        final Option respPort = new Option("r", "resp-port", true,
+                "port of the Redis protocol (RESP2) server, started next to RMI in server mode");
+        options.addOption(respPort);
+        options.addOption(new Option("m", "report-metrics", false,
+                "log the metrics of the store every " + Metrics.REPORT_INTERVAL_MS / 1000 + " s in server mode"));
+        // store options, in server mode
+        options.addOption(new Option(null, "data-file-size", true, "bytes after which a data file is sealed (default "
+                + BitcaskOptions.DEFAULT.dataFileSize + ")"));
+        options.addOption(new Option(null, "read-threads", true, "threads reading the data files (default "
+                + BitcaskOptions.DEFAULT.readThreads + ")"));
+        options.addOption(new Option(null, "mapped-files", true, "sealed data files mapped into memory at a time, 0 to disable (default 0)"));
+        options.addOption(new Option(null, "sync", true, "when writes are forced to disk: none, batch, or an interval in ms (default none)"));
+        options.addOption(new Option(null, "index", true, "key index, hash, packed or ordered (default hash)"));
+        options.addOption(new Option(null, "verify-checksums", false, "check the CRC of every entry read"));
+        options.addOption(new Option(null, "cache-size", true, "bytes of the value cache, 0 to disable (default 0)"));
+        options.addOption(new Option(null, "write-batch-size", true, "entries per write of the group commit (default "
+                + BitcaskOptions.DEFAULT.writeBatchSize + ")"));
+        options.addOption(new Option(null, "scan-buffer-size", true, "bytes of the buffer scanning data files (default "
+                + BitcaskOptions.DEFAULT.scanBufferSize + ")"));
+        options.addOption(new Option(null, "merge-trigger-files", true, "sealed data files that start a merge (default "
+                + BitcaskOptions.DEFAULT.mergeTriggerFiles + ")"));
+        options.addOption(new Option(null, "merge-interval", true, "seconds between merge checks (default "
+                + BitcaskOptions.DEFAULT.mergeCheckIntervalMs / 1000 + ")"));
+        options.addOption(new Option(null, "merge-rate", true, "bytes per second a merge may copy (default "
+                + BitcaskOptions.DEFAULT.mergeBytesPerSecond + ")"));
+        options.addOption(new Option(null, "expiry-sweep-interval", true, "seconds between sweeps of expired keys (default "
+                + BitcaskOptions.DEFAULT.expirySweepIntervalMs / 1000 + ")"));
+        options.addOption(new Option("l", "load", false,
+                "load generator mode, against the binary protocol with --binary-port, otherwise against RMI"));
+        options.addOption(new Option(null, "threads", true, "load generator threads (default 8)"));
+        options.addOption(new Option(null, "connections", true,
+                "binary protocol connections of the load generator, only with --binary-port (default 1)"));
+        options.addOption(new Option(null, "keys", true, "key space size of the load generator (default 100000)"));
+        options.addOption(new Option(null, "distribution", true, "key distribution, uniform or zipfian (default zipfian)"));
+        options.addOption(new Option(null, "read-ratio", true, "fraction of gets, the rest are puts (default 0.9)"));
+        options.addOption(new Option(null, "value-size", true, "size of the values in bytes (default 1024)"));
+        options.addOption(new Option(null, "duration", true, "duration of the load in seconds (default 60)"));
+        options.addOption(new Option(null, "rate", true, "target operations per second, 0 for as fast as possible (default 0)"));
         return options;
     }
 
@@ -38,26 +90,142 @@ public class Main {
         }
     }
 
-    public static final void main(final String[] args) throws Exception {
-        final CommandLine cmd = parseCommandLine(args);
-        if (cmd.hasOption("client")) {
-            final Random random = new Random(System.currentTimeMillis());
+    private static BitcaskOptions storeOptions(final CommandLine cmd) {
+        final BitcaskOptions.Builder options = BitcaskOptions.builder();
+        if (cmd.hasOption("data-file-size")) options.dataFileSize(Long.parseLong(cmd.getOptionValue("data-file-size")));
+        if (cmd.hasOption("read-threads")) options.readThreads(Integer.parseInt(cmd.getOptionValue("read-threads")));
+        if (cmd.hasOption("mapped-files")) options.mappedFiles(Integer.parseInt(cmd.getOptionValue("mapped-files")));
+        if (cmd.hasOption("sync")) {
+            final String sync = cmd.getOptionValue("sync");
+            if (sync.equalsIgnoreCase("none")) options.syncPolicy(SyncPolicy.NONE);
+            else if (sync.equalsIgnoreCase("batch")) options.syncPolicy(SyncPolicy.BATCH);
+            else options.syncPolicy(SyncPolicy.interval(Long.parseLong(sync)));
+        }
+        if (cmd.hasOption("index")) options.index(KeyIndex.Type.valueOf(cmd.getOptionValue("index").toUpperCase()));
+        options.verifyChecksums(cmd.hasOption("verify-checksums"));
+        if (cmd.hasOption("cache-size")) options.cacheBytes(Long.parseLong(cmd.getOptionValue("cache-size")));
+        if (cmd.hasOption("write-batch-size")) {
+            options.writeBatchSize(Integer.parseInt(cmd.getOptionValue("write-batch-size")));
+        }
+        if (cmd.hasOption("scan-buffer-size")) {
+            options.scanBufferSize(Integer.parseInt(cmd.getOptionValue("scan-buffer-size")));
+        }
+        if (cmd.hasOption("merge-trigger-files")) {
+            options.mergeTriggerFiles(Integer.parseInt(cmd.getOptionValue("merge-trigger-files")));
+        }
+        if (cmd.hasOption("merge-interval")) {
+            options.mergeCheckIntervalMs(Long.parseLong(cmd.getOptionValue("merge-interval")) * 1000);
+        }
+        if (cmd.hasOption("merge-rate")) options.mergeBytesPerSecond(Long.parseLong(cmd.getOptionValue("merge-rate")));
+        if (cmd.hasOption("expiry-sweep-interval")) {
+            options.expirySweepIntervalMs(Long.parseLong(cmd.getOptionValue("expiry-sweep-interval")) * 1000);
+        }
+        return options.build();
+    }
+
+    /**
+     * Connects the targets of the client modes: connections of the binary protocol with --binary-port, otherwise the
+     * one RMI stub, which takes no --connections since RMI pools its connections itself.
+     *
+     * @param connections the connections of the binary protocol
+     * @param clients collects the binary clients to close
+     */
+    private static LoadGenerator.Target[] targets(final CommandLine cmd, final int connections,
+                                                  final ArrayList<BinaryClient> clients) throws Exception {
+        if (!cmd.hasOption("binary-port")) {
+            if (cmd.hasOption("connections")) throw new IllegalArgumentException("--connections needs --binary-port");
             final KVStoreRemote client = KVStoreStub.getClient("kv");
+            return new LoadGenerator.Target[]{new LoadGenerator.Target() {
+                @Override
+                public byte[] get(final byte[] key) throws Exception {
+                    return client.get(key);
+                }
+
+                @Override
+                public void put(final byte[] key, final byte[] value) throws Exception {
+                    client.put(key, value);
+                }
+            }};
+        }
+        final int port = Integer.parseInt(cmd.getOptionValue("binary-port"));
+        final LoadGenerator.Target[] targets = new LoadGenerator.Target[connections];
+        for (int i = 0; i < targets.length; i++) {
+            final BinaryClient client = new BinaryClient(new InetSocketAddress("localhost", port));
+            clients.add(client);
+            targets[i] = new LoadGenerator.Target() {
+                @Override
+                public byte[] get(final byte[] key) throws Exception {
+                    return client.get(key).get();
+                }
+
+                @Override
+                public void put(final byte[] key, final byte[] value) throws Exception {
+                    client.put(key, value).get();
+                }
+            };
+        }
+        return targets;
+    }
+
+    private static void load(final CommandLine cmd) throws Exception {
+        final int threads = Integer.parseInt(cmd.getOptionValue("threads", "8"));
+        final KeyDistribution keys = KeyDistribution.parse(cmd.getOptionValue("distribution", "zipfian"),
+                Long.parseLong(cmd.getOptionValue("keys", "100000")));
+        final double readRatio = Double.parseDouble(cmd.getOptionValue("read-ratio", "0.9"));
+        final int valueSize = Integer.parseInt(cmd.getOptionValue("value-size", "1024"));
+        final long durationMs = Long.parseLong(cmd.getOptionValue("duration", "60")) * 1000;
+        final long rate = Long.parseLong(cmd.getOptionValue("rate", "0"));
+        final ArrayList<BinaryClient> clients = new ArrayList<>();
+        try {
+            final LoadGenerator.Target[] targets =
+                    targets(cmd, Integer.parseInt(cmd.getOptionValue("connections", "1")), clients);
+            LOG.info("Running {} threads over {} targets for {} ms", threads, targets.length, durationMs);
+            new LoadGenerator(targets, threads, keys, readRatio, valueSize, durationMs, rate).run().print(System.out);
+        } finally {
+            for (final BinaryClient client : clients) client.close();
+        }
+    }
+
+    private static void client(final CommandLine cmd) throws Exception {
+        final Random random = new Random(System.currentTimeMillis());
+        final ArrayList<BinaryClient> clients = new ArrayList<>();
+        try {
+            final LoadGenerator.Target client = targets(cmd, 1, clients)[0];
             for (int i = 0; i < 100; i++) {
-                final int key = random.nextInt(10);
+                final String key = "" + random.nextInt(10);
                 if (random.nextBoolean()) {
-                    final String value = client.get(key);
+                    final byte[] value = client.get(key.getBytes(UTF_8));
                     if (value == null) LOG.info("get key = {}, result = null", key);
-                    else LOG.info("get key = {}, result = \"{}\"", key, value);
+                    else LOG.info("get key = {}, result = \"{}\"", key, new String(value, UTF_8));
                 } else {
                     final String value = "" + random.nextInt(100);
-                    client.put(key, value);
+                    client.put(key.getBytes(UTF_8), value.getBytes(UTF_8));
                     LOG.info("put key = {}, value = \"{}\"", key, value);
                 }
             }
+        } finally {
+            for (final BinaryClient client : clients) client.close();
+        }
+    }
+
+    public static final void main(final String[] args) throws Exception {
+        final CommandLine cmd = parseCommandLine(args);
+        if (cmd.hasOption("load")) {
+            load(cmd);
+        } else if (cmd.hasOption("client")) {
+            client(cmd);
         } else if (cmd.hasOption("server")) {
             final Path path = new File(cmd.getOptionValue("path")).toPath();
-            try (final KVStoreStub server = new KVStoreStub("kv", 1099, path)) {
+            try (final KVStoreStub server = new KVStoreStub("kv", 1099, path, storeOptions(cmd));
+                 final BinaryServer binary = cmd.hasOption("binary-port") ? new BinaryServer(server.bitcask(),
+                         new InetSocketAddress(Integer.parseInt(cmd.getOptionValue("binary-port"))),
+                         NioServer.DEFAULT_WORKERS) : null;
+                 final RespServer resp = cmd.hasOption("resp-port") ? new RespServer(server.bitcask(),
+                         new InetSocketAddress(Integer.parseInt(cmd.getOptionValue("resp-port"))),
+                         NioServer.DEFAULT_WORKERS) : null) {
+                if (cmd.hasOption("report-metrics")) server.bitcask().metrics().addReporter(Metrics.LOG_REPORTER);
+                if (binary != null) LOG.info("Serving the binary protocol on port {}", binary.port());
+                if (resp != null) LOG.info("Serving the Redis protocol on port {}", resp.port());
                 LOG.info("Successfully started the KV store server...");
                 while (true) {
                     Thread.sleep(100_000);
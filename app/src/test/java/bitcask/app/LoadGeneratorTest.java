@@ -0,0 +1,60 @@
+package bitcask.app;
+
+import bitcask.Bitcask;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadGeneratorTest {
+    @RepeatedTest(5)
+    void testDistributions() {
+        final SplittableRandom random = new SplittableRandom(System.currentTimeMillis());
+        final int keys = 1000;
+        final int samples = 100000;
+        final int[] uniform = new int[keys];
+        final int[] zipfian = new int[keys];
+        final KeyDistribution u = KeyDistribution.uniform(keys);
+        final KeyDistribution z = KeyDistribution.zipfian(keys, KeyDistribution.DEFAULT_THETA);
+        for (int i = 0; i < samples; i++) {
+            uniform[(int) u.next(random)]++;
+            zipfian[(int) z.next(random)]++;
+        }
+        int uniformMax = 0;
+        int zipfianMax = 0;
+        for (int i = 0; i < keys; i++) {
+            uniformMax = Math.max(uniformMax, uniform[i]);
+            zipfianMax = Math.max(zipfianMax, zipfian[i]);
+        }
+        // the hottest Zipfian key takes about 1 / zeta(1000, 0.99), i.e. 13%, of the samples
+        assertTrue(uniformMax < samples / 100, "uniform max " + uniformMax);
+        assertTrue(zipfianMax > samples / 10, "zipfian max " + zipfianMax);
+    }
+
+    @RepeatedTest(5)
+    void testRate(@TempDir Path tempDir) throws Exception {
+        try (final Bitcask bitcask = new Bitcask(tempDir)) {
+            final LoadGenerator.Target target = new LoadGenerator.Target() {
+                @Override
+                public byte[] get(final byte[] key) throws Exception {
+                    return bitcask.get(key);
+                }
+
+                @Override
+                public void put(final byte[] key, final byte[] value) throws Exception {
+                    bitcask.put(key, value);
+                }
+            };
+            final LoadGenerator.Report report = new LoadGenerator(new LoadGenerator.Target[]{target}, 4,
+                    KeyDistribution.zipfian(1000, KeyDistribution.DEFAULT_THETA), 0.5, 100, 1000, 2000).run();
+            assertEquals(0, report.errors);
+            // the threads keep to the schedule, within the start and end offsets
+            assertTrue(Math.abs(report.operations() - 2000) <= 8, "operations " + report.operations());
+            assertTrue(report.reads.getTotalCount() > 0 && report.writes.getTotalCount() > 0);
+            assertTrue(bitcask.size() > 0);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package bitcask.benchmarks;
+
+import bitcask.DataFileEntry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding an entry, with its CRC, and of decoding and checking it again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataFileEntryBenchmark {
+    @Param({"16", "1024", "65536"})
+    public int valueSize;
+
+    private byte[] key;
+    private byte[] value;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        key = Datasets.value(random, 16);
+        value = Datasets.value(random, valueSize);
+        encoded = new DataFileEntry(System.currentTimeMillis(), key, value).data;
+    }
+
+    @Benchmark
+    public DataFileEntry encode() {
+        return new DataFileEntry(System.currentTimeMillis(), key, value);
+    }
+
+    @Benchmark
+    public DataFileEntry decode() throws Exception {
+        return new DataFileEntry(new ByteArrayInputStream(encoded));
+    }
+}
@@ -0,0 +1,49 @@
+package bitcask.benchmarks;
+
+import bitcask.KeyDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Generates the data sets of the benchmarks in temporary directories.
+ */
+final class Datasets {
+    private Datasets() {}
+
+    static Path createDirectory() throws IOException {
+        return Files.createTempDirectory("bitcask-benchmark-");
+    }
+
+    static void delete(final Path path) throws IOException {
+        try (final Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    static byte[] key(final int key) {
+        return ByteBuffer.allocate(4).putInt(key).array();
+    }
+
+    static byte[] value(final Random random, final int size) {
+        final byte[] value = new byte[size];
+        random.nextBytes(value);
+        return value;
+    }
+
+    /**
+     * Puts the keys [0, keys) in order, then overwrites random keys until the total number of puts, so that the data
+     * files also hold stale values.
+     */
+    static void fill(final KeyDir keyDir, final int keys, final int puts, final int valueSize) {
+        final Random random = new Random(42);
+        for (int i = 0; i < puts; i++) {
+            keyDir.put(key(i < keys ? i : random.nextInt(keys)), value(random, valueSize));
+        }
+    }
+}
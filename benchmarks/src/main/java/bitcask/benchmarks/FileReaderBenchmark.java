@@ -0,0 +1,74 @@
+package bitcask.benchmarks;
+
+import bitcask.DataFileEntry;
+import bitcask.FileReader;
+import bitcask.MappedRegions;
+import bitcask.Metrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution of random value reads from one data file, through the read executor or a mapping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FileReaderBenchmark {
+    @Param({"100000"})
+    public int entries;
+
+    @Param({"128", "4096"})
+    public int valueSize;
+
+    @Param({"false", "true"})
+    public boolean mapped;
+
+    private Path path;
+    private ExecutorService readers;
+    private FileReader reader;
+    private long[] positions;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        path = Datasets.createDirectory();
+        final File file = path.resolve("data").toFile();
+        final Random random = new Random(42);
+        positions = new long[entries];
+        try (final FileOutputStream output = new FileOutputStream(file)) {
+            output.write(DataFileEntry.FILE_HEADER);
+            long bytes = DataFileEntry.FILE_HEADER.length;
+            for (int i = 0; i < entries; i++) {
+                final DataFileEntry entry = new DataFileEntry(i, Datasets.key(i), Datasets.value(random, valueSize));
+                output.write(entry.data);
+                positions[i] = bytes + entry.valueOffset();
+                bytes += entry.data.length;
+            }
+        }
+        readers = Executors.newFixedThreadPool(FileReader.CONCURRENT_READERS);
+        reader = new FileReader(file, readers, mapped ? new MappedRegions(1) : null, new Metrics());
+        reader.seal();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        reader.close();
+        readers.shutdown();
+        Datasets.delete(path);
+    }
+
+    @Benchmark
+    public byte[] read() throws Exception {
+        return reader.read(positions[ThreadLocalRandom.current().nextInt(entries)], valueSize);
+    }
+}
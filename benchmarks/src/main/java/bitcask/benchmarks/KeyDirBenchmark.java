@@ -0,0 +1,75 @@
+package bitcask.benchmarks;
+
+import bitcask.BitcaskOptions;
+import bitcask.KeyDir;
+import bitcask.KeyIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of puts and gets of random existing keys, alone and from several threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class KeyDirBenchmark {
+    @Param({"100000"})
+    public int keys;
+
+    @Param({"128", "4096"})
+    public int valueSize;
+
+    @Param({"HASH", "PACKED", "ORDERED"})
+    public KeyIndex.Type index;
+
+    private Path path;
+    private KeyDir keyDir;
+    private byte[] value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        path = Datasets.createDirectory();
+        keyDir = new KeyDir(path, BitcaskOptions.builder().index(index).build());
+        Datasets.fill(keyDir, keys, keys, valueSize);
+        value = Datasets.value(new Random(42), valueSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        keyDir.close();
+        Datasets.delete(path);
+    }
+
+    private byte[] randomKey() {
+        return Datasets.key(ThreadLocalRandom.current().nextInt(keys));
+    }
+
+    @Benchmark
+    public void put() {
+        keyDir.put(randomKey(), value);
+    }
+
+    @Benchmark
+    public byte[] get() throws Exception {
+        return keyDir.get(randomKey());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void putContended() {
+        keyDir.put(randomKey(), value);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public byte[] getContended() throws Exception {
+        return keyDir.get(randomKey());
+    }
+}
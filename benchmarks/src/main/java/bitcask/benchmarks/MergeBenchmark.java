@@ -0,0 +1,53 @@
+package bitcask.benchmarks;
+
+import bitcask.KeyDir;
+import bitcask.Merger;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merge of a data set where most entries are stale. The merge is throttled to
+ * {@link Merger#MERGE_BYTES_PER_SECOND}, so this measures the work around the throttle as much as the copy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MergeBenchmark {
+    @Param({"200000"})
+    public int puts;
+
+    @Param({"128"})
+    public int valueSize;
+
+    @Param({"4"})
+    public int overwrites;
+
+    private Path path;
+    private KeyDir keyDir;
+    private Merger merger;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws Exception {
+        path = Datasets.createDirectory();
+        keyDir = new KeyDir(path);
+        Datasets.fill(keyDir, puts / overwrites, puts, valueSize);
+        merger = new Merger(keyDir);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws Exception {
+        merger.close();
+        keyDir.close();
+        Datasets.delete(path);
+    }
+
+    @Benchmark
+    public void merge() throws Exception {
+        merger.merge();
+    }
+}
@@ -0,0 +1,61 @@
+package bitcask.benchmarks;
+
+import bitcask.Bitcask;
+import bitcask.KeyDir;
+import bitcask.PersistentData;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Startup replay of a generated data set, from the hint files or by scanning every data file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RecoveryBenchmark {
+    @Param({"1000000"})
+    public int puts;
+
+    @Param({"128", "1024"})
+    public int valueSize;
+
+    @Param({"true", "false"})
+    public boolean hints;
+
+    private Path path;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        path = Datasets.createDirectory();
+        try (final KeyDir keyDir = new KeyDir(path)) {
+            Datasets.fill(keyDir, puts / 2, puts, valueSize);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Datasets.delete(path);
+    }
+
+    @Benchmark
+    public long replay() throws Exception {
+        final LongAdder loaded = new LongAdder();
+        // a scan writes the missing hint files, which the next iteration would use
+        if (!hints) {
+            for (final File file : path.toFile().listFiles()) {
+                if (file.getName().startsWith(Bitcask.HINT_FILE_PREFIX)) file.delete();
+            }
+        }
+        try (final PersistentData data = new PersistentData(path,
+                (key, valueSize, timestamp, expiresAt, fileId, valuePos) -> loaded.increment())) {
+            return loaded.sum();
+        }
+    }
+}
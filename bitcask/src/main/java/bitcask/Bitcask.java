@@ -6,21 +6,36 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class Bitcask implements KVStoreRemote, AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(Bitcask.class);
 
     public static final String DATA_FILE_PREFIX = "data_file_";
+    public static final String HINT_FILE_PREFIX = "hint_file_";
+    public static final String MERGE_FILE_PREFIX = "merge_file_";
     public static final int DATA_FILE_SIZE_LIMIT = 4 * 1024 * 100;
 
     private final KeyDir keyDir;
+    private final Merger merger;
 
     public Bitcask(final Path path) throws IOException {
-        this.keyDir = new KeyDir(path);
+        this(path, BitcaskOptions.DEFAULT);
+    }
+
+    public Bitcask(final Path path, final BitcaskOptions options) throws IOException {
+        LOG.info("open {} with {}", path, options);
+        this.keyDir = new KeyDir(path, options);
+        this.merger = new Merger(keyDir);
+        keyDir.metrics().start(path.toAbsolutePath().toString());
     }
 
     @Override
-    public String get(int key) throws RemoteException {
+    public byte[] get(final byte[] key) throws RemoteException {
         try {
             return keyDir.get(key);
         } catch (Exception e) {
@@ -29,12 +44,140 @@ public class Bitcask implements KVStoreRemote, AutoCloseable {
     }
 
     @Override
-    public void put(int key, String value) throws RemoteException {
+    public void put(final byte[] key, final byte[] value) throws RemoteException {
         keyDir.put(key, value);
     }
 
+    @Override
+    public void put(final byte[] key, final byte[] value, final long ttlMillis) throws RemoteException {
+        keyDir.put(key, value, ttlMillis);
+    }
+
+    @Override
+    public boolean putIfAbsent(final byte[] key, final byte[] value) throws RemoteException {
+        return keyDir.putIfAbsent(key, value);
+    }
+
+    @Override
+    public boolean compareAndSet(final byte[] key, final byte[] expected, final byte[] value) throws RemoteException {
+        return keyDir.compareAndSet(key, expected, value);
+    }
+
+    @Override
+    public long increment(final byte[] key, final long delta) throws RemoteException {
+        return keyDir.increment(key, delta);
+    }
+
+    @Override
+    public byte[][] multiGet(final byte[][] keys) throws RemoteException {
+        try {
+            return keyDir.multiGet(keys);
+        } catch (Exception e) {
+            throw new RemoteException("KeyDir error", e);
+        }
+    }
+
+    @Override
+    public void multiPut(final byte[][] keys, final byte[][] values) throws RemoteException {
+        if (keys.length != values.length) throw new IllegalArgumentException("keys and values differ in length");
+        keyDir.multiPut(keys, values);
+    }
+
+    @Override
+    public void multiDelete(final byte[][] keys) throws RemoteException {
+        keyDir.multiPut(keys, new byte[keys.length][]);
+    }
+
+    @Override
+    public List<Map.Entry<byte[], byte[]>> scan(final byte[] fromKey, final byte[] toKey, final int limit)
+            throws RemoteException {
+        final ArrayList<Map.Entry<byte[], byte[]>> result = new ArrayList<>();
+        scanIterator(fromKey, toKey, limit).forEachRemaining(result::add);
+        return result;
+    }
+
+    /**
+     * Like {@link #scan(byte[], byte[], int)}, but streams the pairs instead of collecting them: the keys are looked
+     * up and their values read a page at a time, as the iterator advances.
+     */
+    public Iterator<Map.Entry<byte[], byte[]>> scanIterator(final byte[] fromKey, final byte[] toKey, final int limit) {
+        return keyDir.scan(fromKey, toKey, limit);
+    }
+
+    /**
+     * Writes the puts and deletes of the batch atomically: after a crash, all of them are recovered or none.
+     */
+    public void write(final WriteBatch batch) {
+        keyDir.write(batch);
+    }
+
+    /**
+     * Reads the value of the key without blocking the caller. The future completes with null if the key is missing.
+     */
+    public CompletableFuture<byte[]> getAsync(final byte[] key) {
+        return keyDir.getAsync(key);
+    }
+
+    /**
+     * Puts the key-value pair, or deletes the key if the value is null, without blocking the caller. The future
+     * completes once the entry is written, and forced to disk if the sync policy asks for it, and visible to reads.
+     */
+    public CompletableFuture<Void> putAsync(final byte[] key, final byte[] value) {
+        return keyDir.putAsync(key, value);
+    }
+
+    public CompletableFuture<Void> putAsync(final byte[] key, final byte[] value, final long ttlMillis) {
+        return keyDir.putAsync(key, value, ttlMillis);
+    }
+
+    public CompletableFuture<Void> deleteAsync(final byte[] key) {
+        return keyDir.putAsync(key, null);
+    }
+
+    /**
+     * @return whether the key has a value, without reading the value
+     */
+    public boolean containsKey(final byte[] key) {
+        return keyDir.containsKey(key);
+    }
+
+    /**
+     * @return the number of keys with a value, including expired ones until they are swept
+     */
+    public int size() {
+        return keyDir.size();
+    }
+
+    /**
+     * @return a consistent view of the store as of now, which must be closed to release the data files it pins
+     */
+    public Snapshot snapshot() throws Exception {
+        return keyDir.snapshot();
+    }
+
+    /**
+     * Backs the store up into the target directory while it keeps serving, see {@link Snapshot#backup(Path)}.
+     */
+    public void backup(final Path target) throws Exception {
+        try (final Snapshot snapshot = keyDir.snapshot()) {
+            snapshot.backup(target);
+        }
+    }
+
+    /**
+     * @return the metrics, also registered as the MBean {@code bitcask:type=Metrics,name="<path>"}
+     */
+    public Metrics metrics() {
+        return keyDir.metrics();
+    }
+
+    public void merge() throws Exception {
+        merger.merge();
+    }
+
     @Override
     public void close() throws Exception {
+        merger.close();
         keyDir.close();
     }
 }
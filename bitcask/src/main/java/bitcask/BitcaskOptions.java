@@ -0,0 +1,191 @@
+package bitcask;
+
+/**
+ * The tuning of a store, so that it does not take a rebuild. The defaults are those of the constants they replace,
+ * e.g., {@link Bitcask#DATA_FILE_SIZE_LIMIT}. Build with {@link #builder()}:
+ * <pre>{@code
+ * BitcaskOptions.builder().dataFileSize(64 << 20).readThreads(32).syncPolicy(SyncPolicy.BATCH).build()
+ * }</pre>
+ */
+public final class BitcaskOptions {
+    public static final BitcaskOptions DEFAULT = builder().build();
+
+    public final long dataFileSize;  // a data file is sealed once it grows past this
+    public final int readThreads;
+    public final int mappedFiles;  // 0 to disable mapping
+    public final SyncPolicy syncPolicy;
+    public final KeyIndex.Type index;
+    public final boolean verifyChecksums;
+    public final long cacheBytes;  // 0 to disable caching
+    public final int writeBatchSize;  // entries per write of the group commit
+    public final int scanBufferSize;  // bytes of the buffer that scans a data file at recovery or merge
+    public final int mergeTriggerFiles;  // sealed files that start a background merge
+    public final long mergeCheckIntervalMs;
+    public final long mergeBytesPerSecond;
+    public final long expirySweepIntervalMs;  // between sweeps of the expired keys from the index
+
+    private BitcaskOptions(final Builder builder) {
+        this.dataFileSize = builder.dataFileSize;
+        this.readThreads = builder.readThreads;
+        this.mappedFiles = builder.mappedFiles;
+        this.syncPolicy = builder.syncPolicy;
+        this.index = builder.index;
+        this.verifyChecksums = builder.verifyChecksums;
+        this.cacheBytes = builder.cacheBytes;
+        this.writeBatchSize = builder.writeBatchSize;
+        this.scanBufferSize = builder.scanBufferSize;
+        this.mergeTriggerFiles = builder.mergeTriggerFiles;
+        this.mergeCheckIntervalMs = builder.mergeCheckIntervalMs;
+        this.mergeBytesPerSecond = builder.mergeBytesPerSecond;
+        this.expirySweepIntervalMs = builder.expirySweepIntervalMs;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a builder that starts from these options
+     */
+    public Builder toBuilder() {
+        return new Builder()
+                .dataFileSize(dataFileSize)
+                .readThreads(readThreads)
+                .mappedFiles(mappedFiles)
+                .syncPolicy(syncPolicy)
+                .index(index)
+                .verifyChecksums(verifyChecksums)
+                .cacheBytes(cacheBytes)
+                .writeBatchSize(writeBatchSize)
+                .scanBufferSize(scanBufferSize)
+                .mergeTriggerFiles(mergeTriggerFiles)
+                .mergeCheckIntervalMs(mergeCheckIntervalMs)
+                .mergeBytesPerSecond(mergeBytesPerSecond)
+                .expirySweepIntervalMs(expirySweepIntervalMs);
+    }
+
+    @Override
+    public String toString() {
+        return "dataFileSize=" + dataFileSize + ", readThreads=" + readThreads + ", mappedFiles=" + mappedFiles
+                + ", syncPolicy=" + syncPolicy + ", index=" + index + ", verifyChecksums=" + verifyChecksums
+                + ", cacheBytes=" + cacheBytes + ", writeBatchSize=" + writeBatchSize
+                + ", scanBufferSize=" + scanBufferSize + ", mergeTriggerFiles=" + mergeTriggerFiles
+                + ", mergeCheckIntervalMs=" + mergeCheckIntervalMs + ", mergeBytesPerSecond=" + mergeBytesPerSecond
+                + ", expirySweepIntervalMs=" + expirySweepIntervalMs;
+    }
+
+    public static final class Builder {
+        private long dataFileSize = Bitcask.DATA_FILE_SIZE_LIMIT;
+        private int readThreads = FileReader.CONCURRENT_READERS;
+        private int mappedFiles = 0;
+        private SyncPolicy syncPolicy = SyncPolicy.NONE;
+        private KeyIndex.Type index = KeyIndex.Type.HASH;
+        private boolean verifyChecksums = false;
+        private long cacheBytes = 0;
+        private int writeBatchSize = PersistentData.WRITE_BATCH_SIZE;
+        private int scanBufferSize = DataFileScanner.BUFFER_SIZE;
+        private int mergeTriggerFiles = Merger.MERGE_TRIGGER_FILES;
+        private long mergeCheckIntervalMs = Merger.MERGE_CHECK_INTERVAL_MS;
+        private long mergeBytesPerSecond = Merger.MERGE_BYTES_PER_SECOND;
+        private long expirySweepIntervalMs = Merger.EXPIRY_SWEEP_INTERVAL_MS;
+
+        private Builder() {
+        }
+
+        private static void check(final boolean valid, final String message) {
+            if (!valid) throw new IllegalArgumentException(message);
+        }
+
+        public Builder dataFileSize(final long dataFileSize) {
+            // value positions are kept below 2^32, see ValueCache
+            check(dataFileSize > 0 && dataFileSize <= Integer.MAX_VALUE, "data file size must be in (0, 2^31)");
+            this.dataFileSize = dataFileSize;
+            return this;
+        }
+
+        public Builder readThreads(final int readThreads) {
+            check(readThreads > 0, "read threads must be positive");
+            this.readThreads = readThreads;
+            return this;
+        }
+
+        /**
+         * @param mappedFiles the number of sealed data files that can be mapped into memory at a time, 0 to disable
+         */
+        public Builder mappedFiles(final int mappedFiles) {
+            check(mappedFiles >= 0, "mapped files must not be negative");
+            this.mappedFiles = mappedFiles;
+            return this;
+        }
+
+        public Builder syncPolicy(final SyncPolicy syncPolicy) {
+            check(syncPolicy != null, "sync policy must not be null");
+            this.syncPolicy = syncPolicy;
+            return this;
+        }
+
+        public Builder index(final KeyIndex.Type index) {
+            check(index != null, "index must not be null");
+            this.index = index;
+            return this;
+        }
+
+        /**
+         * @param verifyChecksums whether every read checks the CRC of its entry, which costs reading its header and key
+         */
+        public Builder verifyChecksums(final boolean verifyChecksums) {
+            this.verifyChecksums = verifyChecksums;
+            return this;
+        }
+
+        /**
+         * @param cacheBytes the capacity of the value cache in bytes, 0 to disable caching
+         */
+        public Builder cacheBytes(final long cacheBytes) {
+            check(cacheBytes >= 0, "cache bytes must not be negative");
+            this.cacheBytes = cacheBytes;
+            return this;
+        }
+
+        public Builder writeBatchSize(final int writeBatchSize) {
+            check(writeBatchSize > 0, "write batch size must be positive");
+            this.writeBatchSize = writeBatchSize;
+            return this;
+        }
+
+        public Builder scanBufferSize(final int scanBufferSize) {
+            // the header and the key of an entry must fit in the buffer
+            check(scanBufferSize >= DataFileEntry.HEADER_SIZE + 0xFFFF, "scan buffer must hold the largest key");
+            this.scanBufferSize = scanBufferSize;
+            return this;
+        }
+
+        public Builder mergeTriggerFiles(final int mergeTriggerFiles) {
+            check(mergeTriggerFiles > 0, "merge trigger files must be positive");
+            this.mergeTriggerFiles = mergeTriggerFiles;
+            return this;
+        }
+
+        public Builder mergeCheckIntervalMs(final long mergeCheckIntervalMs) {
+            check(mergeCheckIntervalMs > 0, "merge check interval must be positive");
+            this.mergeCheckIntervalMs = mergeCheckIntervalMs;
+            return this;
+        }
+
+        public Builder mergeBytesPerSecond(final long mergeBytesPerSecond) {
+            check(mergeBytesPerSecond > 0, "merge bytes per second must be positive");
+            this.mergeBytesPerSecond = mergeBytesPerSecond;
+            return this;
+        }
+
+        public Builder expirySweepIntervalMs(final long expirySweepIntervalMs) {
+            check(expirySweepIntervalMs > 0, "expiry sweep interval must be positive");
+            this.expirySweepIntervalMs = expirySweepIntervalMs;
+            return this;
+        }
+
+        public BitcaskOptions build() {
+            return new BitcaskOptions(this);
+        }
+    }
+}
@@ -3,98 +3,163 @@ package bitcask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
 
+/**
+ * An entry of a data file. Every data file starts with {@link #FILE_HEADER}, followed by the entries:
+ * CRC (4), timestamp (8), expiry (8, 0 if the entry never expires), key size (2, unsigned),
+ * value size (4, -1 for a tombstone), key, value. The CRC is a CRC32C of the rest of the entry.
+ * An atomic batch of entries is framed by two markers, entries with an empty key and no value whose value size is
+ * {@link #BATCH_BEGIN} or {@link #BATCH_COMMIT}, and whose expiry field holds the number of entries in the batch.
+ */
 public final class DataFileEntry {
     private static final Logger LOG = LoggerFactory.getLogger(DataFileEntry.class);
 
-    public final static int VALUE_OFFSET = 1 + 8 + 1 + 2 + 4;
+    public final static byte VERSION = 4;
+    // magic, format version and 3 reserved bytes
+    public final static byte[] FILE_HEADER = {'B', 'C', 'S', 'K', VERSION, 0, 0, 0};
+    public final static int HEADER_SIZE = 4 + 8 + 8 + 2 + 4;
+    public final static int MAX_KEY_SIZE = 0xFFFF;
+    public final static int BATCH_BEGIN = -2;  // the value size of the marker before the entries of a batch
+    public final static int BATCH_COMMIT = -3;  // and after them
 
-    public final byte CRC;
+    public final int CRC;
     public final long timestamp;
-    public final byte keySize;
-    public final short valueSize;  // -1 when value is null
-    public final int key;
-    public final String value;  // delete when value is null
+    public final long expiresAt;  // in ms since the epoch, 0 if the entry never expires
+    public final int keySize;
+    public final int valueSize;  // -1 when value is null
+    public final byte[] key;
+    public final byte[] value;  // delete when value is null
     public final byte[] data;
 
-    public DataFileEntry(final long timestamp, final int key, final String value) {
+    public DataFileEntry(final long timestamp, final byte[] key, final byte[] value) {
+        this(timestamp, 0, key, value);
+    }
+
+    public DataFileEntry(final long timestamp, final long expiresAt, final byte[] key, final byte[] value) {
+        this(timestamp, expiresAt, key, value, value == null ? -1 : value.length);
+    }
+
+    private DataFileEntry(final long timestamp, final long expiresAt, final byte[] key, final byte[] value,
+                          final int valueSize) {
+        if (key.length > MAX_KEY_SIZE) throw new IllegalArgumentException("key is longer than " + MAX_KEY_SIZE + " bytes");
         this.timestamp = timestamp;
+        this.expiresAt = expiresAt;
         this.key = key;
-        this.keySize = 4;
+        this.keySize = key.length;
         this.value = value;
-        if (value == null) {
-            this.valueSize = -1;
-        } else {
-            this.valueSize = (short) value.length();
-        }
-        final ByteBuffer buffer = ByteBuffer.allocate(VALUE_OFFSET + Math.max(this.valueSize, 0));
-        buffer.put((byte) 0);
+        this.valueSize = valueSize;
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + keySize + Math.max(this.valueSize, 0));
+        buffer.putInt(0);
         buffer.putLong(timestamp);
-        buffer.put(keySize);
-        buffer.putShort(valueSize);
-        buffer.putInt(key);
+        buffer.putLong(expiresAt);
+        buffer.putShort((short) keySize);
+        buffer.putInt(valueSize);
+        buffer.put(key);
         if (value != null) {
-            buffer.put(value.getBytes(StandardCharsets.UTF_8));
+            buffer.put(value);
         }
         data = buffer.array();
-        byte CRC = 0;
-        for (int i = 1; i < data.length; i++) CRC ^= data[i];
-        data[0] = CRC;
-        this.CRC = CRC;
+        this.CRC = checksum(data, 0, data.length);
+        buffer.putInt(0, CRC);
+    }
+
+    /**
+     * @param type {@link #BATCH_BEGIN} or {@link #BATCH_COMMIT}
+     * @return the marker of a batch of the given number of entries
+     */
+    public static DataFileEntry marker(final int type, final long timestamp, final int entries) {
+        return new DataFileEntry(timestamp, entries, new byte[0], null, type);
+    }
+
+    public boolean marker() {
+        return valueSize < -1;
+    }
+
+    /**
+     * @return the CRC32C of the entry at the offset, which covers everything but the CRC field itself
+     */
+    public static int checksum(final byte[] bytes, final int offset, final int length) {
+        final CRC32C crc = new CRC32C();
+        crc.update(bytes, offset + 4, length - 4);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return whether the entry has a time to live that is over at the given time
+     */
+    public static boolean expired(final long expiresAt, final long now) {
+        return expiresAt != 0 && expiresAt <= now;
+    }
+
+    /**
+     * @return the offset of the value from the start of the entry
+     */
+    public int valueOffset() {
+        return HEADER_SIZE + keySize;
     }
 
     public static final class EOF extends Exception {}
 
-    public DataFileEntry(final FileInputStream input) throws EOF, IOException {
-        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        final byte[] timestamp = new byte[8];
-        final byte[] key = new byte[4];
-        final byte[] valueSize = new byte[2];
+    /**
+     * An entry that fails its CRC or has impossible sizes, e.g., after a bit flip on disk.
+     */
+    public static final class Corrupt extends IOException {
+        public Corrupt(final String message) {
+            super(message);
+        }
+    }
 
-        int result = input.read();
-        if (result == -1) throw new EOF();  // handle no more input
-        final byte CRC = (byte) result;
-        buffer.write(CRC);
-
-        result = input.read(timestamp);
-        if (result < timestamp.length) throw new IOException();
-        this.timestamp = ByteBuffer.wrap(timestamp).getLong();
-        buffer.write(timestamp);
-
-        result = input.read();
-        if (result == -1) throw new IOException();
-        this.keySize = (byte) result;
-        buffer.write(this.keySize);
-
-        result = input.read(valueSize);
-        if (result == -1) throw new IOException();
-        this.valueSize = ByteBuffer.wrap(valueSize).getShort();
-        buffer.write(valueSize);
-
-        result = input.read(key);
-        if (result < key.length) throw new IOException();
-        this.key = ByteBuffer.wrap(key).getInt();
-        buffer.write(key);
-
-        if (this.valueSize == -1) {
-            this.value = null;
-        } else {
-            final byte[] value = new byte[this.valueSize];
-            result = input.read(value);
-            if (result < (int) this.valueSize) throw new EOF();  // handle failed separated value chunks
-            this.value = new String(value);
-            buffer.write(value);
+    // a short read means that a crash tore the last entry, which is discarded as if it was never written
+    private static void readFully(final InputStream input, final byte[] bytes, final int offset) throws EOF, IOException {
+        int read = offset;
+        while (read < bytes.length) {
+            final int result = input.read(bytes, read, bytes.length - read);
+            if (result == -1) throw new EOF();
+            read += result;
         }
+    }
+
+    /**
+     * Checks the header at the start of a data file.
+     *
+     * @throws EOF if the file is too short to hold the header, i.e., nothing was ever written to it
+     */
+    public static void readFileHeader(final InputStream input) throws EOF, IOException {
+        final byte[] header = new byte[FILE_HEADER.length];
+        readFully(input, header, 0);
+        if (!Arrays.equals(Arrays.copyOf(header, 4), Arrays.copyOf(FILE_HEADER, 4))) {
+            throw new IOException("not a data file");
+        }
+        if (header[4] != VERSION) throw new IOException("unsupported data file version " + header[4]);
+    }
 
-        this.data = buffer.toByteArray();
-        byte crc = 0;
-        for (int i = 1; i < data.length; i++) crc ^= data[i];
-        if (crc != CRC) throw new IOException("invalid data file");
-        this.CRC = CRC;
+    public DataFileEntry(final InputStream input) throws EOF, IOException {
+        final byte[] header = new byte[HEADER_SIZE];
+        final int result = input.read();
+        if (result == -1) throw new EOF();  // handle no more input
+        header[0] = (byte) result;
+        readFully(input, header, 1);
+        final ByteBuffer buffer = ByteBuffer.wrap(header);
+        this.CRC = buffer.getInt();
+        this.timestamp = buffer.getLong();
+        this.expiresAt = buffer.getLong();
+        this.keySize = buffer.getShort() & 0xFFFF;
+        this.valueSize = buffer.getInt();
+        if (valueSize < BATCH_COMMIT || valueSize < -1 && keySize != 0) {
+            throw new Corrupt("invalid value size " + valueSize);
+        }
+        // a size past the end of the file is a torn or corrupt header, never allocate for it
+        if ((long) keySize + Math.max(valueSize, 0) > input.available()) throw new EOF();
+        this.data = new byte[HEADER_SIZE + keySize + Math.max(valueSize, 0)];
+        System.arraycopy(header, 0, data, 0, HEADER_SIZE);
+        readFully(input, data, HEADER_SIZE);
+        if (checksum(data, 0, data.length) != CRC) throw new Corrupt("CRC mismatch");
+        this.key = Arrays.copyOfRange(data, HEADER_SIZE, HEADER_SIZE + keySize);
+        this.value = valueSize < 0 ? null : Arrays.copyOfRange(data, HEADER_SIZE + keySize, data.length);
     }
 }
@@ -0,0 +1,170 @@
+package bitcask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32C;
+
+/**
+ * Replays a data file through a large direct buffer: the entry headers are parsed in place, and the values are only
+ * run through the CRC, never copied. The key is the only allocation per entry. The buffer is reused across files,
+ * so a scanner must not be shared between threads. The entries of a batch are held back until its commit marker,
+ * and a batch that is not committed ends the valid prefix of the file.
+ */
+public final class DataFileScanner {
+    private static final Logger LOG = LoggerFactory.getLogger(DataFileScanner.class);
+
+    public static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final ByteBuffer buffer;
+    private final CRC32C crc = new CRC32C();
+    private FileChannel channel;
+
+    private static final class Held {
+        private final byte[] key;
+        private final int valueSize;
+        private final long timestamp;
+        private final long expiresAt;
+        private final long valuePos;
+        private Held(final byte[] key, final int valueSize, final long timestamp, final long expiresAt,
+                     final long valuePos) {
+            this.key = key;
+            this.valueSize = valueSize;
+            this.timestamp = timestamp;
+            this.expiresAt = expiresAt;
+            this.valuePos = valuePos;
+        }
+    }
+
+    private final ArrayList<Held> batch = new ArrayList<>();
+    private long batchStart = -1;  // the position of the open batch, -1 if none
+    private long batchSize = 0;
+
+    public DataFileScanner() {
+        this(BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize the size of the buffer, which must hold the header and the key of any entry
+     */
+    public DataFileScanner(final int bufferSize) {
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Calls the loader for every valid entry of the file, in order, and stops at a torn or corrupt entry.
+     *
+     * @return the length of the valid prefix of the file, 0 if not even the file header was written
+     */
+    public long scan(final File file, final int fileId, final PersistentData.Loader loader) throws IOException {
+        batch.clear();
+        batchStart = -1;
+        final long valid = scanEntries(file, fileId, loader);
+        batch.clear();
+        if (batchStart == -1) return valid;
+        LOG.warn("data file {} ends with a batch that is not committed at {}", fileId, batchStart);
+        return batchStart;
+    }
+
+    private long scanEntries(final File file, final int fileId, final PersistentData.Loader loader)
+            throws IOException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            this.channel = channel;
+            buffer.clear().flip();
+            final long size = channel.size();
+            if (!ensure(DataFileEntry.FILE_HEADER.length)) return 0;
+            for (int i = 0; i < 4; i++) {
+                if (buffer.get() != DataFileEntry.FILE_HEADER[i]) throw new IOException("not a data file");
+            }
+            final byte version = buffer.get();
+            if (version != DataFileEntry.VERSION) throw new IOException("unsupported data file version " + version);
+            buffer.position(buffer.position() + DataFileEntry.FILE_HEADER.length - 5);
+            long pos = DataFileEntry.FILE_HEADER.length;
+            while (ensure(DataFileEntry.HEADER_SIZE)) {
+                final int start = buffer.position();
+                final int expected = buffer.getInt();
+                final long timestamp = buffer.getLong();
+                final long expiresAt = buffer.getLong();
+                final int keySize = buffer.getShort() & 0xFFFF;
+                final int valueSize = buffer.getInt();
+                if (valueSize < DataFileEntry.BATCH_COMMIT || valueSize < -1 && keySize != 0) {
+                    LOG.warn("data file {} has an invalid value size at {}", fileId, pos);
+                    return pos;
+                }
+                final long length = DataFileEntry.HEADER_SIZE + keySize + Math.max(valueSize, 0);
+                // a torn entry, or a corrupt size that runs past the end of the file
+                if (pos + length > size) return pos;
+                buffer.position(start);
+                if (!ensure(DataFileEntry.HEADER_SIZE + keySize)) return pos;
+                // ensure may have compacted the buffer, so the entry starts at the current position
+                final int entryStart = buffer.position();
+                final int limit = buffer.limit();
+                crc.reset();
+                buffer.position(entryStart + 4).limit(entryStart + DataFileEntry.HEADER_SIZE + keySize);
+                crc.update(buffer);
+                buffer.limit(limit).position(entryStart + DataFileEntry.HEADER_SIZE);
+                final byte[] key = new byte[keySize];
+                buffer.get(key);
+                int remaining = Math.max(valueSize, 0);
+                while (remaining > 0) {
+                    if (!ensure(Math.min(remaining, buffer.capacity()))) return pos;
+                    final int chunk = Math.min(remaining, buffer.remaining());
+                    final int end = buffer.limit();
+                    buffer.limit(buffer.position() + chunk);
+                    crc.update(buffer);
+                    buffer.limit(end);
+                    remaining -= chunk;
+                }
+                if ((int) crc.getValue() != expected) {
+                    LOG.warn("data file {} has a CRC mismatch at {}", fileId, pos);
+                    return pos;
+                }
+                final long valuePos = pos + DataFileEntry.HEADER_SIZE + keySize;
+                if (valueSize == DataFileEntry.BATCH_BEGIN) {
+                    if (batchStart != -1) return pos;
+                    batchStart = pos;
+                    batchSize = expiresAt;
+                } else if (valueSize == DataFileEntry.BATCH_COMMIT) {
+                    if (batchStart == -1 || batchSize != expiresAt || batch.size() != expiresAt) return pos;
+                    for (final Held held : batch) {
+                        loader.load(held.key, held.valueSize, held.timestamp, held.expiresAt, fileId, held.valuePos);
+                    }
+                    batch.clear();
+                    batchStart = -1;
+                } else if (batchStart != -1) {
+                    batch.add(new Held(key, valueSize, timestamp, expiresAt, valuePos));
+                } else {
+                    loader.load(key, valueSize, timestamp, expiresAt, fileId, valuePos);
+                }
+                pos += length;
+            }
+            return pos;
+        } finally {
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Makes sure that the buffer holds at least the given number of bytes, reading more of the file if needed.
+     *
+     * @return false if the file ends first
+     */
+    private boolean ensure(final int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) return true;
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+                buffer.flip();
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+}
@@ -3,81 +3,172 @@ package bitcask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.*;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Positional reads of one data file through a single channel. The reads run on the executor that
+ * {@link PersistentData} shares among all data files, which bounds the concurrent reads of the whole store.
+ * Once the file is sealed, and if mapping is enabled, reads are served from the mapped file on the calling thread.
+ */
 public final class FileReader implements AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(FileReader.class);
 
-    public static final int CONCURRENT_READERS = 5;
+    // default size of the read executor shared by all data files
+    public static final int CONCURRENT_READERS = 16;
 
-    private static final class Read {
-        private String result = null;
-        private final long pos;
-        private final short size;
-        private IOException error = null;
-        private CountDownLatch latch = new CountDownLatch(1);
+    private final FileChannel channel;
+    private final ExecutorService readers;
+    private final MappedRegions regions;  // null when mapping is disabled
+    private final Metrics metrics;
+    private volatile boolean sealed = false;
 
-        private Read(final long pos, final short size) {
-            this.pos = pos;
-            this.size = size;
+    // owned by regions
+    volatile MappedByteBuffer mapped = null;
+    volatile boolean referenced = false;
+
+    public FileReader(final File file, final ExecutorService readers, final MappedRegions regions,
+                      final Metrics metrics) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.readers = readers;
+        this.regions = regions;
+        this.metrics = metrics;
+    }
+
+    // a task counted in the queue depth from its submission until it starts, or is cancelled or rejected
+    private final class Queued<T> implements Callable<T> {
+        private final Callable<T> task;
+        private final long submitted = System.nanoTime();
+        private final AtomicBoolean dequeued = new AtomicBoolean();
+
+        private Queued(final Callable<T> task) {
+            this.task = task;
+            metrics.readQueueDepth.increment();
+        }
+
+        private void dequeue() {
+            if (dequeued.compareAndSet(false, true)) metrics.readQueueDepth.decrement();
+        }
+
+        @Override
+        public T call() throws Exception {
+            dequeue();
+            metrics.readWait.record(submitted);
+            return task.call();
+        }
+    }
+
+    /**
+     * Marks the file as immutable, so that it may be mapped.
+     */
+    public void seal() {
+        this.sealed = true;
+    }
+
+    public boolean sealed() {
+        return sealed;
+    }
+
+    private MappedByteBuffer mapped() throws IOException {
+        final MappedByteBuffer mapped = this.mapped;
+        if (mapped == null && sealed && regions != null) return regions.map(this, channel);
+        return mapped;
+    }
+
+    private byte[] readMapped(final MappedByteBuffer mapped, final long pos, final int size) throws EOFException {
+        referenced = true;
+        if (pos + size > mapped.limit()) throw new EOFException();
+        final byte[] result = new byte[size];
+        final ByteBuffer buffer = mapped.duplicate();
+        buffer.position((int) pos);
+        buffer.get(result);
+        return result;
+    }
+
+    public byte[] read(final long pos, final int size) throws IOException, InterruptedException {
+        if (size == -1) return null;
+        final MappedByteBuffer mapped = mapped();
+        if (mapped != null) return readMapped(mapped, pos, size);
+        final Queued<byte[]> task = new Queued<>(() -> readAt(pos, size));
+        final Future<byte[]> read;
+        try {
+            read = readers.submit(task);
+        } catch (final RejectedExecutionException e) {
+            task.dequeue();
+            throw e;
+        }
+        try {
+            return read.get();
+        } catch (final InterruptedException e) {
+            read.cancel(false);
+            task.dequeue();
+            throw e;
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
         }
     }
 
-    private final RandomAccessFile[] files;
-    private final Thread[] readers;
-    private final LinkedBlockingQueue<Read> reads;
-
-    public FileReader(final File file) throws IOException {
-        this.files = new RandomAccessFile[CONCURRENT_READERS];
-        this.readers = new Thread[CONCURRENT_READERS];
-        this.reads = new LinkedBlockingQueue<>();
-        for (int i = 0; i < this.files.length; i++) {
-            final RandomAccessFile fileReader = new RandomAccessFile(file, "r");
-            this.files[i] = fileReader;
-            this.readers[i] = new Thread(() -> {
-                while (true) {
-                    Read read = null;
-                    try {
-                        read = reads.take();
-                    } catch (final InterruptedException e) {
-                        return;
-                    }
-                    try {
-                        fileReader.seek(read.pos);
-                        final byte[] result = new byte[read.size];
-                        fileReader.readFully(result);
-                        read.result = new String(result);
-                    } catch (final IOException e) {
-                        read.error = e;
-                    }
-                    read.latch.countDown();
+    /**
+     * Reads several values in one task of the executor, in the given order, which should be ascending for
+     * sequential I/O.
+     */
+    public CompletableFuture<byte[][]> readAll(final long[] positions, final int[] sizes) {
+        final CompletableFuture<byte[][]> result = new CompletableFuture<>();
+        try {
+            final MappedByteBuffer mapped = mapped();
+            if (mapped != null) {
+                final byte[][] values = new byte[positions.length][];
+                for (int i = 0; i < positions.length; i++) values[i] = readMapped(mapped, positions[i], sizes[i]);
+                result.complete(values);
+                return result;
+            }
+            final Queued<Void> task = new Queued<>(() -> {
+                try {
+                    final byte[][] values = new byte[positions.length][];
+                    for (int i = 0; i < positions.length; i++) values[i] = readAt(positions[i], sizes[i]);
+                    result.complete(values);
+                } catch (final Throwable t) {
+                    result.completeExceptionally(t);
                 }
+                return null;
             });
+            try {
+                readers.submit(task);
+            } catch (final RejectedExecutionException e) {
+                task.dequeue();
+                throw e;
+            }
+        } catch (final Exception e) {
+            result.completeExceptionally(e);
         }
-        for (final Thread reader : readers) reader.start();
+        return result;
     }
 
-    public String read(final long pos, final short size) throws IOException, InterruptedException {
-        if (size == -1) return null;
-        final Read read = new Read(pos, size);
-        this.reads.put(read);
-        read.latch.await();
-        if (read.error == null) return read.result;
-        throw read.error;
+    private byte[] readAt(final long pos, final int size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        // the channel position is untouched, so concurrent reads of the same file do not interfere
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, pos + buffer.position()) < 0) throw new EOFException();
+        }
+        return buffer.array();
     }
 
     @Override
     public void close() throws Exception {
-        for (final Thread reader : this.readers) {
-            reader.interrupt();
-        }
-        for (final Thread reader : this.readers) {
-            reader.join();
-        }
-        for (final RandomAccessFile file : this.files) {
-            file.close();
-        }
+        if (regions != null) regions.unmap(this);
+        channel.close();
     }
 }
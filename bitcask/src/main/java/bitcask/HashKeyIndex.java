@@ -0,0 +1,43 @@
+package bitcask;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+public final class HashKeyIndex implements KeyIndex {
+    private final ConcurrentHashMap<Key, KeyDir.Value> map = new ConcurrentHashMap<>();
+
+    @Override
+    public KeyDir.Value get(final byte[] key) {
+        return map.get(new Key(key));
+    }
+
+    @Override
+    public KeyDir.Value put(final byte[] key, final KeyDir.Value value) {
+        return map.put(new Key(key), value);
+    }
+
+    @Override
+    public KeyDir.Value remove(final byte[] key) {
+        return map.remove(new Key(key));
+    }
+
+    @Override
+    public KeyDir.Value compute(final byte[] key, final Remapping remapping) {
+        return map.compute(new Key(key), (k, v) -> remapping.apply(key, v));
+    }
+
+    @Override
+    public boolean replace(final byte[] key, final KeyDir.Value expected, final KeyDir.Value updated) {
+        return map.replace(new Key(key), expected, updated);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public void forEach(final BiConsumer<byte[], KeyDir.Value> action) {
+        map.forEach((key, value) -> action.accept(key.bytes, value));
+    }
+}
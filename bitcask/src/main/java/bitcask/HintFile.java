@@ -0,0 +1,117 @@
+package bitcask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * The hint file of a sealed data file: the header of each entry in the data file, in the same order, without values.
+ * It starts with the data file header, then the records: timestamp (8), expiry (8), key size (2), value size (4),
+ * value position (8), key. The trailer holds the length of the data file and a CRC32C of everything before it,
+ * so a stale or partial hint is ignored.
+ */
+public final class HintFile {
+    private static final Logger LOG = LoggerFactory.getLogger(HintFile.class);
+
+    public final static int RECORD_HEADER_SIZE = 8 + 8 + 2 + 4 + 8;
+    public final static int TRAILER_SIZE = 8 + 8;
+
+    private static final class Records extends ByteArrayOutputStream {
+        private void truncate(final int size) {
+            count = size;
+        }
+    }
+
+    private final Records records = new Records();
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+    public HintFile() {
+        records.write(DataFileEntry.FILE_HEADER, 0, DataFileEntry.FILE_HEADER.length);
+    }
+
+    public void add(final long timestamp, final long expiresAt, final byte[] key, final int valueSize,
+                    final long valuePos) {
+        record.clear();
+        record.putLong(timestamp);
+        record.putLong(expiresAt);
+        record.putShort((short) key.length);
+        record.putInt(valueSize);
+        record.putLong(valuePos);
+        records.write(record.array(), 0, RECORD_HEADER_SIZE);
+        records.write(key, 0, key.length);
+    }
+
+    /**
+     * @return the length of the records, to {@link #truncate(int)} them back to
+     */
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * Drops the records added since the hint had the given size.
+     */
+    public void truncate(final int size) {
+        records.truncate(size);
+    }
+
+    public void write(final File file, final long dataFileBytes) throws IOException {
+        final byte[] data = records.toByteArray();
+        final CRC32C crc = new CRC32C();
+        crc.update(data);
+        final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        trailer.putLong(dataFileBytes);
+        trailer.putLong(crc.getValue());
+        // write aside and rename, so that a crash never leaves a partial hint file in place
+        final File temp = new File(file.getPath() + ".tmp");
+        try (final FileOutputStream output = new FileOutputStream(temp)) {
+            output.write(data);
+            output.write(trailer.array());
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return false, without calling the loader, if the hint file does not exist or does not match the data file
+     */
+    public static boolean load(final File file, final long dataFileBytes, final int fileId,
+                               final PersistentData.Loader loader) throws IOException {
+        if (!file.exists()) return false;
+        final byte[] data = Files.readAllBytes(file.toPath());
+        final int header = DataFileEntry.FILE_HEADER.length;
+        if (data.length < header + TRAILER_SIZE ||
+                !Arrays.equals(Arrays.copyOf(data, header), DataFileEntry.FILE_HEADER)) {
+            LOG.warn("ignore malformed hint file {}", file);
+            return false;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        final int size = data.length - TRAILER_SIZE;
+        final CRC32C crc = new CRC32C();
+        crc.update(data, 0, size);
+        if (buffer.getLong(size) != dataFileBytes || buffer.getLong(size + 8) != crc.getValue()) {
+            LOG.warn("ignore stale hint file {}", file);
+            return false;
+        }
+        buffer.position(header);
+        while (buffer.position() < size) {
+            final long timestamp = buffer.getLong();
+            final long expiresAt = buffer.getLong();
+            final int keySize = buffer.getShort() & 0xFFFF;
+            final int valueSize = buffer.getInt();
+            final long valuePos = buffer.getLong();
+            final byte[] key = new byte[keySize];
+            buffer.get(key);
+            loader.load(key, valueSize, timestamp, expiresAt, fileId, valuePos);
+        }
+        return true;
+    }
+}
@@ -2,8 +2,26 @@ package bitcask;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
 
 public interface KVStoreRemote extends Remote {
-    String get(final int key) throws RemoteException;
-    void put(final int key, final String value) throws RemoteException;
+    byte[] get(final byte[] key) throws RemoteException;
+    void put(final byte[] key, final byte[] value) throws RemoteException;
+    // the value reads as missing once the time to live is over, 0 if it never expires
+    void put(final byte[] key, final byte[] value, final long ttlMillis) throws RemoteException;
+    // atomic per key, so that a read-modify-write needs one round trip and no retry loop: whether the value is put
+    boolean putIfAbsent(final byte[] key, final byte[] value) throws RemoteException;
+    // puts (or deletes, if null) the value only if the current one equals expected, where null expects no value
+    boolean compareAndSet(final byte[] key, final byte[] expected, final byte[] value) throws RemoteException;
+    // adds delta to a decimal integer value (0 if missing), keeping its time to live, and returns the result
+    long increment(final byte[] key, final long delta) throws RemoteException;
+    // one round trip for many keys: the values are in the order of the keys, null for a missing key
+    byte[][] multiGet(final byte[][] keys) throws RemoteException;
+    void multiPut(final byte[][] keys, final byte[][] values) throws RemoteException;
+    void multiDelete(final byte[][] keys) throws RemoteException;
+    // the pairs with keys in [fromKey, toKey) in key order, up to limit, where a null bound is open (ORDERED index
+    // only); the next page starts from Key.successor of the last key, and [p, Key.prefixEnd(p)) scans a prefix
+    List<Map.Entry<byte[], byte[]>> scan(final byte[] fromKey, final byte[] toKey, final int limit)
+            throws RemoteException;
 }
@@ -13,12 +13,24 @@ public class KVStoreStub implements AutoCloseable {
     private final KVStoreRemote stub;
 
     public KVStoreStub(final String name, final int port, final Path path) throws IOException {
-        this.bitcask = new Bitcask(path);
+        this(name, port, path, BitcaskOptions.DEFAULT);
+    }
+
+    public KVStoreStub(final String name, final int port, final Path path, final BitcaskOptions options)
+            throws IOException {
+        this.bitcask = new Bitcask(path, options);
         this.stub = (KVStoreRemote) UnicastRemoteObject.exportObject((KVStoreRemote) this.bitcask, 0);
         final Registry registry = LocateRegistry.createRegistry(port);
         registry.rebind(name, stub);
     }
 
+    /**
+     * @return the store, e.g., to serve it over other protocols too
+     */
+    public Bitcask bitcask() {
+        return bitcask;
+    }
+
     public static KVStoreRemote getClient(final String name) throws RemoteException, NotBoundException {
         Registry registry = LocateRegistry.getRegistry();
         return (KVStoreRemote) registry.lookup(name);
@@ -0,0 +1,65 @@
+package bitcask;
+
+import java.util.Arrays;
+
+/**
+ * A byte[] key with content equality and unsigned lexicographic order. The bytes must not be modified.
+ */
+public final class Key implements Comparable<Key> {
+    public final byte[] bytes;
+    private final int hash;
+
+    public Key(final byte[] bytes) {
+        this.bytes = bytes;
+        this.hash = Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Key)) return false;
+        final Key other = (Key) o;
+        return hash == other.hash && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public int compareTo(final Key other) {
+        return compare(bytes, other.bytes);
+    }
+
+    /**
+     * @return the least key greater than the key, i.e., the key followed by a zero byte
+     */
+    public static byte[] successor(final byte[] key) {
+        return Arrays.copyOf(key, key.length + 1);
+    }
+
+    /**
+     * @return the least key greater than every key that starts with the prefix, or null if there is none (the prefix
+     * is empty or all 0xFF), so that [prefix, prefixEnd(prefix)) is a prefix scan
+     */
+    public static byte[] prefixEnd(final byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xFF) {
+                final byte[] end = Arrays.copyOf(prefix, i + 1);
+                end[i]++;
+                return end;
+            }
+        }
+        return null;
+    }
+
+    public static int compare(final byte[] a, final byte[] b) {
+        final int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            final int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (c != 0) return c;
+        }
+        return a.length - b.length;
+    }
+}
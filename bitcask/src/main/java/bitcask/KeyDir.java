@@ -1,50 +1,655 @@
 package bitcask;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 public final class KeyDir implements AutoCloseable {
     public static final class Value {
         public final int fileId;
-        public final short valueSize;
+        public final int valueSize;
         public final long valuePos;
         public final long timestamp;
-        public Value(final int fileId, final short valueSize, final long valuePos, final long timestamp) {
+        public final long expiresAt;  // 0 if the value never expires
+        public Value(final int fileId, final int valueSize, final long valuePos, final long timestamp) {
+            this(fileId, valueSize, valuePos, timestamp, 0);
+        }
+
+        public Value(final int fileId, final int valueSize, final long valuePos, final long timestamp,
+                     final long expiresAt) {
             this.fileId = fileId;
             this.valueSize = valueSize;
             this.valuePos = valuePos;
             this.timestamp = timestamp;
+            this.expiresAt = expiresAt;
+        }
+
+        public boolean expired(final long now) {
+            return DataFileEntry.expired(expiresAt, now);
+        }
+
+        // the same position in the same file is the same entry, even if the index hands out a new object
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Value)) return false;
+            final Value other = (Value) o;
+            return fileId == other.fileId && valuePos == other.valuePos
+                    && valueSize == other.valueSize && timestamp == other.timestamp;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * fileId + Long.hashCode(valuePos);
+        }
+
+        /**
+         * @return whether this entry was written before the other one, i.e., it comes first in the replay order
+         */
+        public boolean precedes(final Value other) {
+            return fileId < other.fileId || fileId == other.fileId && valuePos < other.valuePos;
         }
     }
 
-    private final ConcurrentHashMap<Integer, Value> map = new ConcurrentHashMap<>();
+    private static final int WRITE_STRIPES = 1024;
+    static final int SCAN_PAGE = 256;  // keys looked up and read together by a scan
+
+    private final KeyIndex index;
     private final PersistentData data;
+    private final Metrics metrics;
+    // a writer holds the stripes of its keys from the append to the index update, so both happen in the same order
+    private final ReentrantLock[] writeLocks = new ReentrantLock[WRITE_STRIPES];
+    // the asynchronous puts of each stripe that are appended but not yet in the index
+    private final AtomicIntegerArray pendingPuts = new AtomicIntegerArray(WRITE_STRIPES);
+    // the snapshots that are walking the index, each with the values that updates replaced since it was taken
+    private final CopyOnWriteArrayList<ConcurrentHashMap<Key, Object>> walks = new CopyOnWriteArrayList<>();
+    private static final Object ABSENT = new Object();  // the key had no value when the snapshot was taken
+    private static final Object VISITED = new Object();  // the walk has taken the value from the index
 
     public KeyDir(final Path path) throws IOException {
-        data = new PersistentData(path, entry -> {
-            map.put(entry.entry.key, new Value(entry.fileId, entry.entry.valueSize, entry.offset, entry.entry.timestamp));
+        this(path, BitcaskOptions.DEFAULT);
+    }
+
+    public KeyDir(final Path path, final BitcaskOptions options) throws IOException {
+        final KeyIndex index = KeyIndex.create(options.index);
+        final Metrics metrics = new Metrics();
+        this.index = index;
+        this.metrics = metrics;
+        for (int i = 0; i < WRITE_STRIPES; i++) writeLocks[i] = new ReentrantLock();
+        // the files are loaded out of order, so a tombstone stays in the index until the values it hides are loaded,
+        // and so does an expired value
+        final ConcurrentLinkedQueue<byte[]> tombstones = new ConcurrentLinkedQueue<>();
+        final long now = System.currentTimeMillis();
+        data = new PersistentData(path, (key, valueSize, timestamp, expiresAt, fileId, valuePos) -> {
+            final Value loaded = new Value(fileId, valueSize, valuePos, timestamp, expiresAt);
+            if (valueSize == -1 || loaded.expired(now)) tombstones.add(key);
+            index.compute(key, (k, v) -> {
+                if (v != null && !v.precedes(loaded)) {
+                    metrics.addDead(fileId, Metrics.entrySize(key, valueSize));
+                    return v;
+                }
+                metrics.addLive(fileId, Metrics.entrySize(key, valueSize));
+                if (v != null) metrics.superseded(v.fileId, Metrics.entrySize(key, v.valueSize));
+                return loaded;
+            });
+        }, options, metrics);
+        for (final byte[] key : tombstones) {
+            index.compute(key, (k, v) -> {
+                if (v == null || v.valueSize != -1 && !v.expired(now)) return v;
+                metrics.superseded(v.fileId, Metrics.entrySize(key, -1));
+                return null;
+            });
+        }
+    }
+
+    private static int stripe(final byte[] key) {
+        return (Arrays.hashCode(key) * 0x9E3779B9) >>> 22;
+    }
+
+    private void update(final byte[] key, final byte[] value, final Value appended) {
+        final long size = Metrics.entrySize(key, appended.valueSize);
+        final Value previous;
+        if (!walks.isEmpty()) {
+            final Value[] replaced = new Value[1];
+            index.compute(key, (k, v) -> {
+                record(key, v);
+                replaced[0] = v;
+                return value == null ? null : appended;
+            });
+            previous = replaced[0];
+        } else if (value == null) {
+            previous = index.remove(key);
+        } else {
+            previous = index.put(key, appended);
+        }
+        // the tombstone stays in the data file until merge, but the key leaves the memory
+        if (value == null) {
+            metrics.addDead(appended.fileId, size);
+        } else {
+            metrics.addLive(appended.fileId, size);
+        }
+        if (previous != null) metrics.superseded(previous.fileId, Metrics.entrySize(key, previous.valueSize));
+    }
+
+    private static DataFileEntry entry(final byte[] key, final byte[] value, final long ttlMillis) {
+        return entry(System.currentTimeMillis(), key, value, ttlMillis);
+    }
+
+    private static DataFileEntry entry(final long timestamp, final byte[] key, final byte[] value,
+                                       final long ttlMillis) {
+        if (ttlMillis < 0) throw new IllegalArgumentException("time to live must not be negative");
+        return new DataFileEntry(timestamp, value == null || ttlMillis == 0 ? 0 : timestamp + ttlMillis, key, value);
+    }
+
+    public void put(final byte[] key, final byte[] value) {
+        put(key, value, 0);
+    }
+
+    /**
+     * Puts the key-value pair, which reads as missing once the time to live is over, or deletes the key if the value
+     * is null.
+     *
+     * @param ttlMillis the time to live of the value, 0 if it never expires
+     */
+    public void put(final byte[] key, final byte[] value, final long ttlMillis) {
+        final long start = System.nanoTime();
+        final DataFileEntry entry = entry(key, value, ttlMillis);
+        final ReentrantLock lock = writeLocks[stripe(key)];
+        lock.lock();
+        try {
+            update(key, value, data.append(entry));
+            (value == null ? metrics.delete : metrics.put).record(start);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts the key-value pair, or deletes the key if the value is null, without waiting for the write. The writer
+     * thread updates the index once the entry is written, in the order of the appends, and then completes the future.
+     */
+    public CompletableFuture<Void> putAsync(final byte[] key, final byte[] value) {
+        return putAsync(key, value, 0);
+    }
+
+    /**
+     * Like {@link #putAsync(byte[], byte[])}, with a time to live, 0 if the value never expires.
+     */
+    public CompletableFuture<Void> putAsync(final byte[] key, final byte[] value, final long ttlMillis) {
+        final long start = System.nanoTime();
+        final DataFileEntry entry = entry(key, value, ttlMillis);
+        final CompletableFuture<Value> appended;
+        // the stripe orders this append after the puts of the key that are still updating the index
+        final int stripe = stripe(key);
+        final ReentrantLock lock = writeLocks[stripe];
+        lock.lock();
+        try {
+            pendingPuts.incrementAndGet(stripe);
+            appended = data.appendAsync(entry, written -> update(key, value, written));
+        } finally {
+            lock.unlock();
+        }
+        appended.whenComplete((written, t) -> pendingPuts.decrementAndGet(stripe));
+        return appended.thenApply(written -> {
+            (value == null ? metrics.delete : metrics.put).record(start);
+            return null;
         });
     }
 
-    public void put(final int key, final String value) {
-        map.compute(key, (k, v) -> {
+    /**
+     * Puts all key-value pairs, where a null value deletes the key, as one atomic batch.
+     * A key that appears more than once takes its last value.
+     */
+    public void multiPut(final byte[][] keys, final byte[][] values) {
+        final WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < keys.length; i++) batch.put(keys[i], values[i]);
+        write(batch);
+    }
+
+    /**
+     * Writes the batch with one append, framed so that recovery loads all of its entries or none, and then updates
+     * the index once the batch is written (and forced to disk if the sync policy asks for it). The keys of the batch
+     * are locked meanwhile, but a reader of several keys may see the index halfway through the update.
+     */
+    public void write(final WriteBatch batch) {
+        if (batch.size() == 0) return;
+        final long start = System.nanoTime();
+        final int size = batch.size();
+        // the stripes are locked in ascending order, so concurrent batches cannot deadlock
+        final int[] stripes = new int[size];
+        for (int i = 0; i < size; i++) stripes[i] = stripe(batch.keys.get(i));
+        final int[] locked = Arrays.stream(stripes).sorted().distinct().toArray();
+        int held = 0;
+        try {
+            for (; held < locked.length; held++) writeLocks[locked[held]].lock();
+            final long timestamp = System.currentTimeMillis();
+            final ArrayList<DataFileEntry> entries = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                entries.add(entry(timestamp, batch.keys.get(i), batch.values.get(i), batch.ttls.get(i)));
+            }
+            final List<Value> appended = data.appendBatch(entries);
+            for (int i = 0; i < size; i++) update(batch.keys.get(i), batch.values.get(i), appended.get(i));
+            metrics.multiPut.record(start);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            while (held > 0) writeLocks[locked[--held]].unlock();
+        }
+    }
+
+    /**
+     * Puts the key-value pair only if the key has no value, which is checked in memory without a read.
+     *
+     * @return whether the value is put
+     */
+    public boolean putIfAbsent(final byte[] key, final byte[] value) {
+        return compareAndSet(key, null, value);
+    }
+
+    /**
+     * Puts the key-value pair, or deletes the key if the value is null, only if the current value of the key equals
+     * the expected one, where null expects the key to be missing. The check and the write happen under the write
+     * stripe of the key, so no other write of the key comes between them.
+     *
+     * @return whether the value is put
+     */
+    public boolean compareAndSet(final byte[] key, final byte[] expected, final byte[] value) {
+        final long start = System.nanoTime();
+        final int stripe = stripe(key);
+        final ReentrantLock lock = writeLocks[stripe];
+        lock.lock();
+        try {
+            // the entry is stamped under the lock, so its timestamp follows the value it is compared with
+            final DataFileEntry entry = entry(key, value, 0);
+            final Value current = settled(key, stripe);
+            final boolean matches = expected == null ? current == null :
+                    current != null && Arrays.equals(expected, read(key));
+            // deleting a missing key changes nothing, and only a write is timed as one
+            if (matches && (value != null || current != null)) {
+                update(key, value, data.append(entry));
+                (value == null ? metrics.delete : metrics.put).record(start);
+            }
+            return matches;
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the delta to the value of the key, a signed decimal integer as with Redis INCRBY, where a missing key
+     * counts as 0. The value keeps its time to live.
+     *
+     * @return the value after the increment
+     * @throws IllegalArgumentException if the value is not an integer
+     * @throws ArithmeticException if the result overflows a long
+     */
+    public long increment(final byte[] key, final long delta) {
+        final long start = System.nanoTime();
+        final int stripe = stripe(key);
+        final ReentrantLock lock = writeLocks[stripe];
+        lock.lock();
+        try {
+            final Value current = settled(key, stripe);
+            final byte[] read = current == null ? null : read(key);
+            long result = 0;
+            if (read != null) {
+                try {
+                    result = Long.parseLong(new String(read, StandardCharsets.US_ASCII));
+                } catch (final NumberFormatException e) {
+                    throw new IllegalArgumentException("value is not an integer");
+                }
+            }
+            result = Math.addExact(result, delta);
+            final byte[] value = Long.toString(result).getBytes(StandardCharsets.US_ASCII);
+            final long expiresAt = read == null ? 0 : current.expiresAt;
+            update(key, value, data.append(new DataFileEntry(System.currentTimeMillis(), expiresAt, key, value)));
+            metrics.put.record(start);
+            return result;
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Looks the key up for a read-modify-write under its write stripe, once the asynchronous puts of the stripe are
+     * in the index.
+     *
+     * @return the current value, null if the key is missing or expired
+     */
+    private Value settled(final byte[] key, final int stripe) throws IOException {
+        if (pendingPuts.get(stripe) > 0) data.barrier();
+        final Value value = index.get(key);
+        return value == null || expire(key, value) ? null : value;
+    }
+
+    public byte[] get(final byte[] key) throws IOException, InterruptedException {
+        final long start = System.nanoTime();
+        final byte[] result = read(key);
+        metrics.get.record(start);
+        return result;
+    }
+
+    private byte[] read(final byte[] key) throws IOException, InterruptedException {
+        while (true) {
+            final Value value = index.get(key);
+            if (value == null || expire(key, value)) return null;
+            try {
+                return data.read(value.fileId, value.valuePos, key.length, value.valueSize);
+            } catch (final IOException e) {
+                // retry if merge has moved the value to another file in the meantime
+                if (value.equals(index.get(key))) throw e;
+            }
+        }
+    }
+
+    /**
+     * Reads the value of the key without blocking: the future is completed by the read executor, or at once if the
+     * key is missing or its value is cached or mapped.
+     */
+    public CompletableFuture<byte[]> getAsync(final byte[] key) {
+        final long start = System.nanoTime();
+        return readAsync(key).thenApply(result -> {
+            metrics.get.record(start);
+            return result;
+        });
+    }
+
+    private CompletableFuture<byte[]> readAsync(final byte[] key) {
+        final Value value = index.get(key);
+        if (value == null || expire(key, value)) return CompletableFuture.completedFuture(null);
+        return data.readAsync(value.fileId, value.valuePos, key.length, value.valueSize).handle((result, t) -> {
+            if (t == null) return CompletableFuture.completedFuture(result);
+            final Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+            // retry if merge has moved the value to another file in the meantime
+            if (cause instanceof IOException && !value.equals(index.get(key))) return readAsync(key);
+            return CompletableFuture.<byte[]>failedFuture(cause);
+        }).thenCompose(read -> read);
+    }
+
+    /**
+     * Reads the values of all keys, null for a missing key. The reads are sorted by position and each data file
+     * is read in one task, so that the I/O is sequential.
+     */
+    public byte[][] multiGet(final byte[][] keys) throws IOException, InterruptedException {
+        final long start = System.nanoTime();
+        final Value[] values = new Value[keys.length];
+        for (int i = 0; i < keys.length; i++) values[i] = index.get(keys[i]);
+        final byte[][] result = readAll(keys, values);
+        metrics.multiGet.record(start);
+        return result;
+    }
+
+    /**
+     * Reads the values the keys were looked up to, null for a missing or expired one, in (file id, position) order.
+     */
+    private byte[][] readAll(final byte[][] keys, final Value[] values) throws IOException, InterruptedException {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null && expire(keys[i], values[i])) values[i] = null;
+        }
+        return readAll(keys, values, true);
+    }
+
+    /**
+     * Reads the values at the positions, null for a null one, with one task of the read executor per data file.
+     *
+     * @param retry whether a value that cannot be read, e.g., because merge has removed its file, is looked up again
+     */
+    byte[][] readAll(final byte[][] keys, final Value[] values, final boolean retry)
+            throws IOException, InterruptedException {
+        final byte[][] result = new byte[keys.length][];
+        final ArrayList<Integer> order = new ArrayList<>(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) order.add(i);
+        }
+        order.sort((a, b) -> values[a].precedes(values[b]) ? -1 : values[b].precedes(values[a]) ? 1 : 0);
+        final ArrayList<int[]> groups = new ArrayList<>();
+        final ArrayList<CompletableFuture<byte[][]>> reads = new ArrayList<>();
+        for (int start = 0; start < order.size(); ) {
+            final int fileId = values[order.get(start)].fileId;
+            int end = start;
+            while (end < order.size() && values[order.get(end)].fileId == fileId) end++;
+            final int[] group = new int[end - start];
+            final long[] positions = new long[group.length];
+            final int[] keySizes = new int[group.length];
+            final int[] sizes = new int[group.length];
+            for (int j = 0; j < group.length; j++) {
+                group[j] = order.get(start + j);
+                positions[j] = values[group[j]].valuePos;
+                keySizes[j] = keys[group[j]].length;
+                sizes[j] = values[group[j]].valueSize;
+            }
+            groups.add(group);
+            reads.add(data.readAll(fileId, positions, keySizes, sizes));
+            start = end;
+        }
+        for (int g = 0; g < groups.size(); g++) {
+            final int[] group = groups.get(g);
             try {
-                return data.append(new DataFileEntry(System.currentTimeMillis(), key, value));
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+                final byte[][] read = reads.get(g).get();
+                for (int j = 0; j < group.length; j++) result[group[j]] = read[j];
+            } catch (final ExecutionException e) {
+                if (!(e.getCause() instanceof IOException)) throw new IOException(e.getCause());
+                if (!retry) throw (IOException) e.getCause();
+                // e.g., merge has removed the file in the meantime, so read one by one with the retries of get
+                for (final int i : group) result[i] = read(keys[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the key-value pairs with keys in [fromKey, toKey) in ascending key order, up to limit pairs, where a null
+     * bound is open. It needs the {@link KeyIndex.Type#ORDERED} index. The pairs are fetched {@link #SCAN_PAGE} keys
+     * at a time, and the values of a page are read like {@link #multiGet(byte[][])}, in (file id, position) order.
+     * A key updated during the scan has either value, and a key deleted meanwhile may be left out.
+     *
+     * The iterator throws {@link UnsupportedOperationException} if the index is not ordered.
+     */
+    public Iterator<Map.Entry<byte[], byte[]>> scan(final byte[] fromKey, final byte[] toKey, final int limit) {
+        if (limit < 0) throw new IllegalArgumentException("limit must not be negative");
+        return new Iterator<>() {
+            private final ArrayDeque<Map.Entry<byte[], byte[]>> page = new ArrayDeque<>();
+            private byte[] next = fromKey;
+            private int remaining = limit;
+
+            @Override
+            public boolean hasNext() {
+                while (page.isEmpty() && remaining > 0) fill();
+                return !page.isEmpty();
+            }
+
+            @Override
+            public Map.Entry<byte[], byte[]> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return page.poll();
             }
+
+            private void fill() {
+                final long start = System.nanoTime();
+                final ArrayList<byte[]> keys = new ArrayList<>();
+                final ArrayList<Value> values = new ArrayList<>();
+                index.scan(next, toKey, Math.min(remaining, SCAN_PAGE), (key, value) -> {
+                    keys.add(key);
+                    values.add(value);
+                });
+                if (keys.isEmpty()) {
+                    remaining = 0;
+                    return;
+                }
+                next = Key.successor(keys.get(keys.size() - 1));
+                final byte[][] read;
+                try {
+                    read = readAll(keys.toArray(new byte[0][]), values.toArray(new Value[0]));
+                } catch (IOException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                for (int i = 0; i < read.length && remaining > 0; i++) {
+                    if (read[i] == null) continue;
+                    page.add(new AbstractMap.SimpleImmutableEntry<>(keys.get(i), read[i]));
+                    remaining--;
+                }
+                metrics.scan.record(start);
+            }
+        };
+    }
+
+    Value lookup(final byte[] key) {
+        return index.get(key);
+    }
+
+    /**
+     * @return whether the key has a value that is not expired, without reading the value
+     */
+    public boolean containsKey(final byte[] key) {
+        final Value value = index.get(key);
+        return value != null && !expire(key, value);
+    }
+
+    /**
+     * Drops the key if its value is expired and still the latest, so that merge reclaims the entry like an
+     * overwritten one.
+     *
+     * @return whether the value is expired
+     */
+    boolean expire(final byte[] key, final Value value) {
+        if (value.expiresAt == 0 || !value.expired(System.currentTimeMillis())) return false;
+        index.compute(key, (k, v) -> {
+            if (!value.equals(v)) return v;
+            record(key, v);
+            metrics.superseded(v.fileId, Metrics.entrySize(key, v.valueSize));
+            metrics.expirations.increment();
+            return null;
+        });
+        return true;
+    }
+
+    /**
+     * Keeps the value the key had when the walking snapshots were taken, before an update replaces it. It must be
+     * called under the atomic update of the key.
+     */
+    private void record(final byte[] key, final Value current) {
+        for (final ConcurrentHashMap<Key, Object> replaced : walks) {
+            replaced.putIfAbsent(new Key(key), current == null ? ABSENT : current);
+        }
+    }
+
+    /**
+     * Takes a consistent view of the store at this point in time, which includes every put made before, even an
+     * asynchronous one that is not complete yet. Writes are held back only until the queued appends are written;
+     * then the index is copied while writes go on, and the values replaced in the meantime are recorded, so that the
+     * copy has the values of the point in time (copy on write). The data files are pinned against merge until the
+     * snapshot is closed.
+     */
+    public Snapshot snapshot() throws Exception {
+        final ConcurrentHashMap<Key, Object> replaced = new ConcurrentHashMap<>();
+        final PersistentData.Pinned pinned;
+        final long timestamp;
+        // every writer holds a stripe while it appends, so no write is in flight once the queued ones are done
+        int held = 0;
+        try {
+            for (; held < WRITE_STRIPES; held++) writeLocks[held].lock();
+            data.barrier();
+            pinned = data.pin();
+            timestamp = System.currentTimeMillis();
+            walks.add(replaced);
+        } finally {
+            while (held > 0) writeLocks[--held].unlock();
+        }
+        try {
+            final ArrayList<byte[]> keys = new ArrayList<>();
+            final ArrayList<Value> values = new ArrayList<>();
+            // a key that is not visited first is replaced first, and then its value comes from the record
+            index.forEach((key, value) -> {
+                if (replaced.putIfAbsent(new Key(key), VISITED) != null || value.expired(timestamp)) return;
+                keys.add(key);
+                values.add(value);
+            });
+            replaced.forEach((key, value) -> {
+                if (!(value instanceof Value) || ((Value) value).expired(timestamp)) return;
+                keys.add(key.bytes);
+                values.add((Value) value);
+            });
+            final Integer[] order = new Integer[keys.size()];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> Key.compare(keys.get(a), keys.get(b)));
+            final byte[][] sortedKeys = new byte[order.length][];
+            final Value[] sortedValues = new Value[order.length];
+            for (int i = 0; i < order.length; i++) {
+                sortedKeys[i] = keys.get(order[i]);
+                sortedValues[i] = values.get(order[i]);
+            }
+            return new Snapshot(this, pinned, timestamp, sortedKeys, sortedValues);
+        } catch (final RuntimeException e) {
+            data.unpin();
+            throw e;
+        } finally {
+            walks.remove(replaced);
+        }
+    }
+
+    /**
+     * Drops all expired keys from the index, which get and merge otherwise only do for the keys they come across.
+     */
+    public void sweep() {
+        index.forEach((key, value) -> {
+            if (value.expiresAt != 0) expire(key, value);
         });
     }
 
-    public String get(final int key) throws IOException, InterruptedException {
-        final Value value = map.get(key);
-        if (value == null) return null;
-        return data.read(value.fileId, value.valuePos, value.valueSize);
+    /**
+     * Atomically points the key to the relocated value, unless it has been updated since it was looked up.
+     */
+    boolean relocate(final byte[] key, final Value expected, final Value relocated) {
+        final long size = Metrics.entrySize(key, relocated.valueSize);
+        if (!index.replace(key, expected, relocated)) {
+            metrics.addDead(relocated.fileId, size);
+            return false;
+        }
+        metrics.addLive(relocated.fileId, size);
+        metrics.superseded(expected.fileId, size);
+        return true;
+    }
+
+    /**
+     * @return the number of keys, including the expired ones that are not dropped yet
+     */
+    public int size() {
+        return index.size();
+    }
+
+    PersistentData data() {
+        return data;
+    }
+
+    public Metrics metrics() {
+        return metrics;
     }
 
     @Override
     public void close() throws Exception {
         data.close();
+        metrics.close();
     }
 }
@@ -0,0 +1,69 @@
+package bitcask;
+
+import java.util.function.BiConsumer;
+
+/**
+ * The in-memory index of {@link KeyDir}, from each live key to the position of its latest value.
+ * The index may keep a reference to the key bytes, so they must not be modified afterwards.
+ * Updates of the same key are atomic with respect to each other, and updates of different keys are concurrent.
+ */
+public interface KeyIndex {
+    enum Type {
+        HASH,    // ConcurrentHashMap of boxed keys and Value objects
+        PACKED,  // open addressing over primitive arrays and a key arena, about half of the heap per key
+        ORDERED,  // ConcurrentSkipListMap of boxed keys, which also serves range scans
+    }
+
+    static KeyIndex create(final Type type) {
+        switch (type) {
+            case HASH: return new HashKeyIndex();
+            case PACKED: return new PackedKeyIndex();
+            case ORDERED: return new OrderedKeyIndex();
+            default: throw new IllegalArgumentException("unknown key index " + type);
+        }
+    }
+
+    interface Remapping {
+        KeyDir.Value apply(byte[] key, KeyDir.Value current);
+    }
+
+    KeyDir.Value get(byte[] key);
+
+    /**
+     * @return the previous value of the key, or null
+     */
+    KeyDir.Value put(byte[] key, KeyDir.Value value);
+
+    /**
+     * @return the previous value of the key, or null
+     */
+    KeyDir.Value remove(byte[] key);
+
+    /**
+     * Atomically replaces the value of the key with the result of the remapping, or removes the key if it is null.
+     */
+    KeyDir.Value compute(byte[] key, Remapping remapping);
+
+    /**
+     * Atomically replaces the value of the key, only if it is still equal to the expected value.
+     */
+    boolean replace(byte[] key, KeyDir.Value expected, KeyDir.Value updated);
+
+    int size();
+
+    /**
+     * Calls the action for the keys of the index, without blocking updates. A key that is not updated meanwhile is
+     * visited exactly once. The action may update the index.
+     */
+    void forEach(BiConsumer<byte[], KeyDir.Value> action);
+
+    /**
+     * Calls the action for the keys in [fromKey, toKey) in ascending order, up to limit keys, without blocking
+     * updates. A null bound is open.
+     *
+     * @throws UnsupportedOperationException if the index is not ordered
+     */
+    default void scan(byte[] fromKey, byte[] toKey, int limit, BiConsumer<byte[], KeyDir.Value> action) {
+        throw new UnsupportedOperationException("range scans need the " + Type.ORDERED + " index");
+    }
+}
@@ -0,0 +1,48 @@
+package bitcask;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Bounds the number of sealed data files mapped into memory. Eviction approximates LRU with the CLOCK algorithm,
+ * so a read of a mapped file only sets a flag instead of taking a lock.
+ * An evicted mapping is released by GC once no read is using it any more.
+ */
+public final class MappedRegions {
+    // mapped files are read with int positions
+    public static final long MAX_REGION_SIZE = Integer.MAX_VALUE;
+
+    private final int capacity;
+    private final ArrayDeque<FileReader> clock = new ArrayDeque<>();
+
+    public MappedRegions(final int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the mapping of the reader's file, or null if it is too large to map
+     */
+    synchronized MappedByteBuffer map(final FileReader reader, final FileChannel channel) throws IOException {
+        if (reader.mapped != null) return reader.mapped;
+        final long size = channel.size();
+        if (size > MAX_REGION_SIZE) return null;
+        while (clock.size() >= capacity) {
+            final FileReader victim = clock.poll();
+            if (victim.referenced) {
+                victim.referenced = false;
+                clock.add(victim);
+            } else {
+                victim.mapped = null;
+            }
+        }
+        reader.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        clock.add(reader);
+        return reader.mapped;
+    }
+
+    synchronized void unmap(final FileReader reader) {
+        if (clock.remove(reader)) reader.mapped = null;
+    }
+}
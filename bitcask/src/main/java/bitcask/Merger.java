@@ -0,0 +1,207 @@
+package bitcask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewrites the live entries of all sealed data files into compacted files and deletes the old ones.
+ * Deleted keys and overwritten values are dropped, since the merged files are always the oldest files in the store,
+ * and so are expired values. In the background, it also sweeps the expired keys from the index.
+ */
+public final class Merger implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(Merger.class);
+
+    public static final int MERGE_TRIGGER_FILES = 16;
+    public static final long MERGE_CHECK_INTERVAL_MS = 60 * 1000;
+    public static final long MERGE_BYTES_PER_SECOND = 16 * 1024 * 1024;
+    public static final long EXPIRY_SWEEP_INTERVAL_MS = 60 * 1000;
+
+    private final KeyDir keyDir;
+    private final PersistentData data;
+    private final BitcaskOptions options;
+    private final ScheduledExecutorService scheduler;
+
+    public Merger(final KeyDir keyDir) {
+        this.keyDir = keyDir;
+        this.data = keyDir.data();
+        this.options = data.options();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "bitcask-merger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::mergeIfNeeded,
+                options.mergeCheckIntervalMs, options.mergeCheckIntervalMs, TimeUnit.MILLISECONDS);
+        this.scheduler.scheduleWithFixedDelay(this::sweep,
+                options.expirySweepIntervalMs, options.expirySweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void sweep() {
+        try {
+            keyDir.sweep();
+        } catch (final Exception e) {
+            LOG.error("expiry sweep failed", e);
+        }
+    }
+
+    private void mergeIfNeeded() {
+        if (data.sealedFileCount() < options.mergeTriggerFiles) return;
+        try {
+            merge();
+        } catch (final Exception e) {
+            LOG.error("merge failed", e);
+        }
+    }
+
+    /**
+     * A compacted file, written under a merge file name and renamed to its data file once complete, so that a crash
+     * never leaves a torn data file among the sealed ones. Its keys are relocated only then, so they are read from
+     * the inputs meanwhile.
+     */
+    private static final class Output implements AutoCloseable {
+        private final int fileId;
+        private final File file;
+        private final File dataFile;
+        private final File hintFile;
+        private final FileOutputStream stream;
+        private final HintFile hint = new HintFile();
+        private final ArrayList<byte[]> keys = new ArrayList<>();
+        private final ArrayList<KeyDir.Value> values = new ArrayList<>();  // the values the keys are relocated from
+        private final ArrayList<KeyDir.Value> relocated = new ArrayList<>();
+        private long bytes;
+
+        private Output(final int fileId, final PersistentData.Sealed sealed, final PersistentData data)
+                throws IOException {
+            // an id past the reserved ones is the next active file, which the writer would truncate
+            if (fileId < sealed.firstReservedId || fileId >= sealed.endReservedId) {
+                throw new IllegalStateException("merge output " + fileId + " is out of the reserved ids ["
+                        + sealed.firstReservedId + ", " + sealed.endReservedId + ")");
+            }
+            this.fileId = fileId;
+            this.file = data.mergeFile(fileId);
+            this.dataFile = data.dataFile(fileId);
+            this.hintFile = data.hintFile(fileId);
+            this.stream = new FileOutputStream(file);
+            this.stream.write(DataFileEntry.FILE_HEADER);
+            this.bytes = DataFileEntry.FILE_HEADER.length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the inputs are deleted afterwards, so the output must be durable first; a crash before the hint is
+            // written leaves a complete data file, which gets its hint at the next open
+            stream.getFD().sync();
+            stream.close();
+            Files.move(file.toPath(), dataFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            hint.write(hintFile, bytes);
+        }
+
+        /**
+         * Drops the output of a failed merge, whose keys are still read from the inputs.
+         */
+        private void discard() throws IOException {
+            stream.close();
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    public synchronized void merge() throws Exception {
+        final long start = System.currentTimeMillis();
+        final PersistentData.Sealed sealed = data.sealForMerge();
+        int nextFileId = sealed.firstReservedId;
+        Output output = null;
+        long written = 0;
+        boolean merged = false;
+        try {
+            for (final int fileId : sealed.fileIds) {
+                long fileBytes = DataFileEntry.FILE_HEADER.length;
+                try (final InputStream input = new BufferedInputStream(new FileInputStream(data.dataFile(fileId)), options.scanBufferSize)) {
+                    DataFileEntry.readFileHeader(input);
+                    while (true) {
+                        final DataFileEntry entry = new DataFileEntry(input);
+                        final long offset = fileBytes + entry.valueOffset();
+                        fileBytes += entry.data.length;
+                        // the batches of a sealed file are complete, and the merged entries need no framing
+                        if (entry.marker()) continue;
+                        final KeyDir.Value value = keyDir.lookup(entry.key);
+                        if (value == null || value.fileId != fileId || value.valuePos != offset) continue;
+                        // an expired value is dropped like an overwritten one, without waiting for the sweep
+                        if (keyDir.expire(entry.key, value)) continue;
+                        if (output == null) output = new Output(nextFileId++, sealed, data);
+                        output.stream.write(entry.data);
+                        final KeyDir.Value relocated = new KeyDir.Value(output.fileId, entry.valueSize,
+                                output.bytes + entry.valueOffset(), entry.timestamp, entry.expiresAt);
+                        output.hint.add(entry.timestamp, entry.expiresAt, entry.key, entry.valueSize, relocated.valuePos);
+                        output.bytes += entry.data.length;
+                        output.keys.add(entry.key);
+                        output.values.add(value);
+                        output.relocated.add(relocated);
+                        // the last reserved output takes the rest, e.g., if the data file size has shrunk since the
+                        // inputs were written
+                        if (output.bytes > options.dataFileSize && nextFileId < sealed.endReservedId) {
+                            seal(output);
+                            output = null;
+                        }
+                        written += entry.data.length;
+                        throttle(start, written);
+                    }
+                } catch (final DataFileEntry.EOF e) {
+                    // a corrupt size also reads as the end of the input, so only the end of the file is one; the
+                    // inputs are kept then, since the entries after it may still be live
+                    final long length = data.dataFile(fileId).length();
+                    if (fileBytes != length) {
+                        throw new IOException("data file " + fileId + " has an invalid entry at " + fileBytes
+                                + " of " + length + " bytes, so merge keeps its inputs");
+                    }
+                }
+            }
+            merged = true;
+        } finally {
+            if (output != null) {
+                if (merged) seal(output);
+                else output.discard();
+            }
+        }
+        // deleting the oldest first keeps every tombstone until the older values it hides are gone
+        for (final int fileId : sealed.fileIds) {
+            data.removeDataFile(fileId);
+        }
+        LOG.info("merged {} data files into {} in {} ms", sealed.fileIds.length,
+                nextFileId - sealed.firstReservedId, System.currentTimeMillis() - start);
+    }
+
+    private void seal(final Output output) throws IOException {
+        output.close();
+        data.addDataFile(output.fileId);
+        data.sealDataFile(output.fileId);
+        for (int i = 0; i < output.keys.size(); i++) {
+            // a stale copy is harmless if the key is updated concurrently, because it is replayed first
+            keyDir.relocate(output.keys.get(i), output.values.get(i), output.relocated.get(i));
+        }
+    }
+
+    private void throttle(final long start, final long written) throws InterruptedException {
+        final long expected = written * 1000 / options.mergeBytesPerSecond;
+        final long elapsed = System.currentTimeMillis() - start;
+        if (expected > elapsed) Thread.sleep(expected - elapsed);
+    }
+
+    @Override
+    public void close() throws Exception {
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,417 @@
+package bitcask;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of a store. Recording is wait-free (a {@link LongAdder} or an HdrHistogram
+ * {@link Recorder}), so the metrics are always on. Once started, the histograms are swapped every report interval:
+ * JMX shows the latencies of the last interval, and the reporters receive a {@link Snapshot} of every interval.
+ */
+public final class Metrics implements MetricsMXBean, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(Metrics.class);
+
+    public static final long REPORT_INTERVAL_MS = 10 * 1000;
+
+    /**
+     * Receives the metrics of every report interval, on the metrics thread.
+     */
+    @FunctionalInterface
+    public interface Reporter {
+        void report(Snapshot snapshot);
+    }
+
+    /**
+     * A summary of the latencies of one interval.
+     */
+    public static final class Latency {
+        public static final Latency EMPTY = new Latency(new Histogram(1), 1);
+
+        private final long count;
+        private final double ratePerSecond;
+        private final double meanMicros;
+        private final double p50Micros;
+        private final double p99Micros;
+        private final double p999Micros;
+        private final double maxMicros;
+
+        private Latency(final Histogram histogram, final long intervalNanos) {
+            this.count = histogram.getTotalCount();
+            this.ratePerSecond = count * 1e9 / intervalNanos;
+            this.meanMicros = histogram.getMean() / 1e3;
+            this.p50Micros = histogram.getValueAtPercentile(50) / 1e3;
+            this.p99Micros = histogram.getValueAtPercentile(99) / 1e3;
+            this.p999Micros = histogram.getValueAtPercentile(99.9) / 1e3;
+            this.maxMicros = histogram.getMaxValue() / 1e3;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getRatePerSecond() {
+            return ratePerSecond;
+        }
+
+        public double getMeanMicros() {
+            return meanMicros;
+        }
+
+        public double getP50Micros() {
+            return p50Micros;
+        }
+
+        public double getP99Micros() {
+            return p99Micros;
+        }
+
+        public double getP999Micros() {
+            return p999Micros;
+        }
+
+        public double getMaxMicros() {
+            return maxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d ops (%.0f/s) mean %.1f p50 %.1f p99 %.1f p999 %.1f max %.1f us",
+                    count, ratePerSecond, meanMicros, p50Micros, p99Micros, p999Micros, maxMicros);
+        }
+    }
+
+    /**
+     * The latencies of an operation, and the total count of it.
+     */
+    public static final class Timer {
+        private final Recorder recorder = new Recorder(3);
+        private final LongAdder count = new LongAdder();
+        private Histogram interval = null;  // metrics thread only
+        private volatile Latency latest = Latency.EMPTY;
+
+        /**
+         * @param startNanos the {@link System#nanoTime()} when the operation started
+         */
+        public void record(final long startNanos) {
+            recorder.recordValue(Math.max(System.nanoTime() - startNanos, 0));
+            count.increment();
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public Latency latest() {
+            return latest;
+        }
+
+        private void tick(final long intervalNanos) {
+            interval = recorder.getIntervalHistogram(interval);
+            latest = new Latency(interval, intervalNanos);
+        }
+    }
+
+    public final Timer put = new Timer();
+    public final Timer get = new Timer();
+    public final Timer delete = new Timer();
+    public final Timer multiPut = new Timer();
+    public final Timer multiGet = new Timer();
+    public final Timer scan = new Timer();  // a page of a scan
+    public final Timer readWait = new Timer();  // from submitting a read to the executor until it starts
+    public final Timer flush = new Timer();  // write of a batch to the active data file
+    public final Timer sync = new Timer();
+    public final LongAdder bytesAppended = new LongAdder();
+    public final LongAdder rollovers = new LongAdder();
+    public final LongAdder readQueueDepth = new LongAdder();
+    public final LongAdder cacheHits = new LongAdder();
+    public final LongAdder cacheMisses = new LongAdder();
+    public final LongAdder cacheBytes = new LongAdder();
+    public final LongAdder expirations = new LongAdder();
+    private volatile long recoveryMillis = 0;
+
+    private static final class FileBytes {
+        private final LongAdder live = new LongAdder();
+        private final LongAdder dead = new LongAdder();
+    }
+
+    private final ConcurrentHashMap<Integer, FileBytes> files = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Reporter> reporters = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService scheduler = null;
+    private ObjectName name = null;
+    private long lastTick;
+
+    /**
+     * The metrics of one report interval.
+     */
+    public static final class Snapshot {
+        public final long intervalNanos;
+        public final long puts, gets, deletes, bytesAppended, rollovers, readQueueDepth, recoveryMillis;
+        public final long cacheHits, cacheMisses, cacheBytes, expirations;
+        public final Latency put, get, delete, multiPut, multiGet, scan, readWait, flush, sync;
+        public final Map<Integer, Long> liveBytes, deadBytes;
+
+        private Snapshot(final Metrics metrics, final long intervalNanos) {
+            this.intervalNanos = intervalNanos;
+            this.puts = metrics.getPuts();
+            this.gets = metrics.getGets();
+            this.deletes = metrics.getDeletes();
+            this.bytesAppended = metrics.getBytesAppended();
+            this.rollovers = metrics.getRollovers();
+            this.readQueueDepth = metrics.getReadQueueDepth();
+            this.recoveryMillis = metrics.getRecoveryMillis();
+            this.cacheHits = metrics.getCacheHits();
+            this.cacheMisses = metrics.getCacheMisses();
+            this.cacheBytes = metrics.getCacheBytes();
+            this.expirations = metrics.getExpirations();
+            this.put = metrics.put.latest();
+            this.get = metrics.get.latest();
+            this.delete = metrics.delete.latest();
+            this.multiPut = metrics.multiPut.latest();
+            this.multiGet = metrics.multiGet.latest();
+            this.scan = metrics.scan.latest();
+            this.readWait = metrics.readWait.latest();
+            this.flush = metrics.flush.latest();
+            this.sync = metrics.sync.latest();
+            this.liveBytes = metrics.getLiveBytes();
+            this.deadBytes = metrics.getDeadBytes();
+        }
+    }
+
+    /**
+     * A reporter that logs every snapshot.
+     */
+    public static final Reporter LOG_REPORTER = snapshot -> {
+        long live = 0;
+        long dead = 0;
+        for (final long bytes : snapshot.liveBytes.values()) live += bytes;
+        for (final long bytes : snapshot.deadBytes.values()) dead += bytes;
+        final long lookups = snapshot.cacheHits + snapshot.cacheMisses;
+        LOG.info("put {}; get {}; delete {}; read wait {}; flush {}; sync {}; queued reads {}; live bytes {}; " +
+                        "dead bytes {}; cache hits {}/{} ({} bytes); expirations {}", snapshot.put, snapshot.get,
+                snapshot.delete, snapshot.readWait, snapshot.flush, snapshot.sync, snapshot.readQueueDepth, live, dead,
+                snapshot.cacheHits, lookups, snapshot.cacheBytes, snapshot.expirations);
+    };
+
+    /**
+     * Starts swapping the histograms every report interval, and registers the MBean under the name, if not null.
+     */
+    public synchronized void start(final String name) {
+        if (scheduler != null) return;
+        lastTick = System.nanoTime();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "bitcask-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::tick, REPORT_INTERVAL_MS, REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (name == null) return;
+        try {
+            this.name = new ObjectName("bitcask:type=Metrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, this.name);
+        } catch (final Exception e) {
+            // e.g., another store of the same path is open in this JVM
+            LOG.warn("fail to register the metrics MBean of {}", name, e);
+            this.name = null;
+        }
+    }
+
+    public void addReporter(final Reporter reporter) {
+        reporters.add(reporter);
+    }
+
+    synchronized void tick() {
+        final long now = System.nanoTime();
+        final long intervalNanos = Math.max(now - lastTick, 1);
+        lastTick = now;
+        for (final Timer timer : new Timer[]{put, get, delete, multiPut, multiGet, scan, readWait, flush, sync}) {
+            timer.tick(intervalNanos);
+        }
+        if (reporters.isEmpty()) return;
+        final Snapshot snapshot = new Snapshot(this, intervalNanos);
+        for (final Reporter reporter : reporters) {
+            try {
+                reporter.report(snapshot);
+            } catch (final RuntimeException e) {
+                LOG.warn("metrics reporter failed", e);
+            }
+        }
+    }
+
+    /**
+     * @return the bytes of an entry in its data file
+     */
+    public static long entrySize(final byte[] key, final int valueSize) {
+        return DataFileEntry.HEADER_SIZE + key.length + Math.max(valueSize, 0);
+    }
+
+    public void addLive(final int fileId, final long bytes) {
+        files.computeIfAbsent(fileId, id -> new FileBytes()).live.add(bytes);
+    }
+
+    public void addDead(final int fileId, final long bytes) {
+        files.computeIfAbsent(fileId, id -> new FileBytes()).dead.add(bytes);
+    }
+
+    /**
+     * Moves an entry that has been superseded from the live to the dead bytes of its file.
+     */
+    public void superseded(final int fileId, final long bytes) {
+        final FileBytes file = files.computeIfAbsent(fileId, id -> new FileBytes());
+        file.live.add(-bytes);
+        file.dead.add(bytes);
+    }
+
+    public void removeFile(final int fileId) {
+        files.remove(fileId);
+    }
+
+    public void setRecoveryMillis(final long recoveryMillis) {
+        this.recoveryMillis = recoveryMillis;
+    }
+
+    @Override
+    public long getPuts() {
+        return put.count();
+    }
+
+    @Override
+    public long getGets() {
+        return get.count();
+    }
+
+    @Override
+    public long getDeletes() {
+        return delete.count();
+    }
+
+    @Override
+    public long getBytesAppended() {
+        return bytesAppended.sum();
+    }
+
+    @Override
+    public long getRollovers() {
+        return rollovers.sum();
+    }
+
+    @Override
+    public long getReadQueueDepth() {
+        return readQueueDepth.sum();
+    }
+
+    @Override
+    public long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        final long hits = cacheHits.sum();
+        final long lookups = hits + cacheMisses.sum();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public long getCacheBytes() {
+        return cacheBytes.sum();
+    }
+
+    @Override
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    @Override
+    public Latency getPutLatency() {
+        return put.latest();
+    }
+
+    @Override
+    public Latency getGetLatency() {
+        return get.latest();
+    }
+
+    @Override
+    public Latency getDeleteLatency() {
+        return delete.latest();
+    }
+
+    @Override
+    public Latency getMultiPutLatency() {
+        return multiPut.latest();
+    }
+
+    @Override
+    public Latency getMultiGetLatency() {
+        return multiGet.latest();
+    }
+
+    @Override
+    public Latency getScanLatency() {
+        return scan.latest();
+    }
+
+    @Override
+    public Latency getReadWaitLatency() {
+        return readWait.latest();
+    }
+
+    @Override
+    public Latency getFlushLatency() {
+        return flush.latest();
+    }
+
+    @Override
+    public Latency getSyncLatency() {
+        return sync.latest();
+    }
+
+    @Override
+    public Map<Integer, Long> getLiveBytes() {
+        final TreeMap<Integer, Long> bytes = new TreeMap<>();
+        files.forEach((fileId, file) -> bytes.put(fileId, file.live.sum()));
+        return bytes;
+    }
+
+    @Override
+    public Map<Integer, Long> getDeadBytes() {
+        final TreeMap<Integer, Long> bytes = new TreeMap<>();
+        files.forEach((fileId, file) -> bytes.put(fileId, file.dead.sum()));
+        return bytes;
+    }
+
+    @Override
+    public synchronized void close() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (name != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            name = null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package bitcask;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link Metrics}. The counters are totals since startup, and the latencies are those of the last
+ * report interval.
+ */
+public interface MetricsMXBean {
+    long getPuts();
+
+    long getGets();
+
+    long getDeletes();
+
+    long getBytesAppended();
+
+    long getRollovers();
+
+    long getReadQueueDepth();
+
+    long getRecoveryMillis();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    /**
+     * @return the hits of the value cache per lookup since startup, 0 if it is disabled
+     */
+    double getCacheHitRatio();
+
+    /**
+     * @return the bytes held by the value cache, including the overhead of every entry
+     */
+    long getCacheBytes();
+
+    /**
+     * @return the keys dropped from the index because their time to live is over
+     */
+    long getExpirations();
+
+    Metrics.Latency getPutLatency();
+
+    Metrics.Latency getGetLatency();
+
+    Metrics.Latency getDeleteLatency();
+
+    Metrics.Latency getMultiPutLatency();
+
+    Metrics.Latency getMultiGetLatency();
+
+    /**
+     * @return the latency of reading a page of a scan
+     */
+    Metrics.Latency getScanLatency();
+
+    Metrics.Latency getReadWaitLatency();
+
+    Metrics.Latency getFlushLatency();
+
+    Metrics.Latency getSyncLatency();
+
+    /**
+     * @return the bytes of the entries that are still the latest of their key, by data file id
+     */
+    Map<Integer, Long> getLiveBytes();
+
+    /**
+     * @return the bytes of the entries that merge would drop, by data file id
+     */
+    Map<Integer, Long> getDeadBytes();
+}
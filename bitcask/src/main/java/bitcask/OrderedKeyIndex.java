@@ -0,0 +1,104 @@
+package bitcask;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link ConcurrentSkipListMap} of boxed keys in the order of {@link Key}, which also serves range scans.
+ * The skip list may apply a remapping function more than once under contention, so the updates of one key take
+ * a striped lock, as in {@link PackedKeyIndex}. The size is counted apart, since the skip list counts by traversal.
+ */
+public final class OrderedKeyIndex implements KeyIndex {
+    private static final int STRIPES = 1024;
+
+    private final ConcurrentSkipListMap<Key, KeyDir.Value> map = new ConcurrentSkipListMap<>();
+    private final Object[] stripes = new Object[STRIPES];
+    private final AtomicInteger size = new AtomicInteger();
+
+    public OrderedKeyIndex() {
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Object();
+    }
+
+    private Object stripe(final Key key) {
+        return stripes[(key.hashCode() * 0x9E3779B9) >>> 22];
+    }
+
+    @Override
+    public KeyDir.Value get(final byte[] key) {
+        return map.get(new Key(key));
+    }
+
+    @Override
+    public KeyDir.Value put(final byte[] key, final KeyDir.Value value) {
+        final Key k = new Key(key);
+        synchronized (stripe(k)) {
+            final KeyDir.Value previous = map.put(k, value);
+            if (previous == null) size.incrementAndGet();
+            return previous;
+        }
+    }
+
+    @Override
+    public KeyDir.Value remove(final byte[] key) {
+        final Key k = new Key(key);
+        synchronized (stripe(k)) {
+            final KeyDir.Value previous = map.remove(k);
+            if (previous != null) size.decrementAndGet();
+            return previous;
+        }
+    }
+
+    @Override
+    public KeyDir.Value compute(final byte[] key, final Remapping remapping) {
+        final Key k = new Key(key);
+        synchronized (stripe(k)) {
+            final KeyDir.Value current = map.get(k);
+            final KeyDir.Value updated = remapping.apply(key, current);
+            if (updated != null) {
+                map.put(k, updated);
+                if (current == null) size.incrementAndGet();
+            } else if (current != null) {
+                map.remove(k);
+                size.decrementAndGet();
+            }
+            return updated;
+        }
+    }
+
+    @Override
+    public boolean replace(final byte[] key, final KeyDir.Value expected, final KeyDir.Value updated) {
+        final Key k = new Key(key);
+        synchronized (stripe(k)) {
+            if (!expected.equals(map.get(k))) return false;
+            map.put(k, updated);
+            return true;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public void forEach(final BiConsumer<byte[], KeyDir.Value> action) {
+        map.forEach((key, value) -> action.accept(key.bytes, value));
+    }
+
+    @Override
+    public void scan(final byte[] fromKey, final byte[] toKey, final int limit,
+                     final BiConsumer<byte[], KeyDir.Value> action) {
+        if (fromKey != null && toKey != null && Key.compare(fromKey, toKey) >= 0) return;
+        ConcurrentNavigableMap<Key, KeyDir.Value> range = map;
+        if (fromKey != null) range = range.tailMap(new Key(fromKey), true);
+        if (toKey != null) range = range.headMap(new Key(toKey), false);
+        int count = 0;
+        for (final Map.Entry<Key, KeyDir.Value> entry : range.entrySet()) {
+            if (count++ == limit) return;
+            action.accept(entry.getKey().bytes, entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package bitcask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+
+/**
+ * An open addressing hash table over primitive arrays. A key takes a state byte, its hash, the offset of its bytes
+ * in a key arena and four longs (file id and value size, value position, timestamp, expiry), instead of a {@link Key},
+ * a map node and a {@link KeyDir.Value}. The arena holds every key prefixed with its 2-byte length; the bytes of
+ * removed keys are reclaimed when the table is rehashed.
+ *
+ * The table is split into segments, each guarded by a {@link StampedLock} that is only held while the arrays change,
+ * so reads are optimistic and lock-free in the common case. The atomicity of the updates of one key comes from
+ * a separate set of striped locks, which are held while the remapping function appends to the data files.
+ */
+public final class PackedKeyIndex implements KeyIndex {
+    private static final int SEGMENTS = 64;
+    private static final int STRIPES = 1024;
+    private static final int INITIAL_CAPACITY = 256;  // per segment
+    private static final int INITIAL_ARENA = 4096;  // per segment
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int RECORD = 4;  // longs per slot
+
+    private static final byte EMPTY = 0;
+    private static final byte FULL = 1;
+    private static final byte DELETED = 2;
+
+    private static final class Table {
+        private final byte[] states;
+        private final int[] hashes;
+        private final int[] keyRefs;
+        private final long[] records;  // RECORD per slot
+        // replaced when it grows, so an optimistic reader may see a stale one
+        private byte[] arena;
+        private int arenaUsed = 0;
+        private Table(final int capacity, final int arenaSize) {
+            this.states = new byte[capacity];
+            this.hashes = new int[capacity];
+            this.keyRefs = new int[capacity];
+            this.records = new long[capacity * RECORD];
+            this.arena = new byte[arenaSize];
+        }
+    }
+
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private volatile Table table = new Table(INITIAL_CAPACITY, INITIAL_ARENA);
+        private int size = 0;
+        private int used = 0;  // full and deleted slots
+        private int garbage = 0;  // arena bytes of removed keys
+    }
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final Object[] stripes = new Object[STRIPES];
+
+    public PackedKeyIndex() {
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment();
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Object();
+    }
+
+    private static int hash(final byte[] key) {
+        final int h = Arrays.hashCode(key) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segment(final int hash) {
+        return segments[hash & (SEGMENTS - 1)];
+    }
+
+    private Object stripe(final int hash) {
+        return stripes[(hash >>> 6) & (STRIPES - 1)];
+    }
+
+    private static boolean keyEquals(final Table table, final int slot, final byte[] key) {
+        final byte[] arena = table.arena;
+        final int ref = table.keyRefs[slot];
+        if (ref < 0 || ref + 2 + key.length > arena.length) return false;
+        if ((((arena[ref] & 0xFF) << 8) | (arena[ref + 1] & 0xFF)) != key.length) return false;
+        for (int i = 0; i < key.length; i++) {
+            if (arena[ref + 2 + i] != key[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the slot of the key, or -1. It must not fail on a table that is being modified by a writer.
+     */
+    private static int find(final Table table, final byte[] key, final int hash) {
+        final int mask = table.states.length - 1;
+        int slot = (hash >>> 6) & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            final byte state = table.states[slot];
+            if (state == EMPTY) return -1;
+            if (state == FULL && table.hashes[slot] == hash && keyEquals(table, slot, key)) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static KeyDir.Value read(final Table table, final int slot) {
+        final int record = slot * RECORD;
+        final long fileAndSize = table.records[record];
+        return new KeyDir.Value((int) (fileAndSize >>> 32), (int) fileAndSize,
+                table.records[record + 1], table.records[record + 2], table.records[record + 3]);
+    }
+
+    private static void writeRecord(final Table table, final int slot, final KeyDir.Value value) {
+        final int record = slot * RECORD;
+        table.records[record] = ((long) value.fileId << 32) | (value.valueSize & 0xFFFFFFFFL);
+        table.records[record + 1] = value.valuePos;
+        table.records[record + 2] = value.timestamp;
+        table.records[record + 3] = value.expiresAt;
+    }
+
+    @Override
+    public KeyDir.Value get(final byte[] key) {
+        final int hash = hash(key);
+        final Segment segment = segment(hash);
+        long stamp = segment.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            final Table table = segment.table;
+            final int slot = find(table, key, hash);
+            final KeyDir.Value value = slot == -1 ? null : read(table, slot);
+            if (segment.lock.validate(stamp)) return value;
+        }
+        stamp = segment.lock.readLock();
+        try {
+            final Table table = segment.table;
+            final int slot = find(table, key, hash);
+            return slot == -1 ? null : read(table, slot);
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    private void set(final byte[] key, final int hash, final KeyDir.Value value) {
+        final Segment segment = segment(hash);
+        final long stamp = segment.lock.writeLock();
+        try {
+            Table table = segment.table;
+            final int existing = find(table, key, hash);
+            if (existing != -1) {
+                writeRecord(table, existing, value);
+                return;
+            }
+            if (table.arenaUsed + 2 + key.length > table.arena.length && segment.garbage > table.arenaUsed / 2) {
+                table = rehash(segment, table.states.length);
+            }
+            if (table.arenaUsed + 2 + key.length > table.arena.length) {
+                table.arena = Arrays.copyOf(table.arena,
+                        Math.max(table.arena.length * 2, table.arenaUsed + 2 + key.length));
+            }
+            final int mask = table.states.length - 1;
+            int slot = (hash >>> 6) & mask;
+            while (table.states[slot] == FULL) slot = (slot + 1) & mask;
+            if (table.states[slot] == EMPTY) segment.used++;
+            final int ref = table.arenaUsed;
+            table.arena[ref] = (byte) (key.length >>> 8);
+            table.arena[ref + 1] = (byte) key.length;
+            System.arraycopy(key, 0, table.arena, ref + 2, key.length);
+            table.arenaUsed += 2 + key.length;
+            table.hashes[slot] = hash;
+            table.keyRefs[slot] = ref;
+            writeRecord(table, slot, value);
+            table.states[slot] = FULL;
+            segment.size++;
+            if (segment.used > table.states.length * LOAD_FACTOR) {
+                // grow only if the table is full of live keys, otherwise rehashing drops the deleted slots
+                rehash(segment, segment.size > table.states.length * LOAD_FACTOR / 2 ?
+                        table.states.length * 2 : table.states.length);
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Copies the live keys into a new table, without the deleted slots and the garbage in the arena.
+     */
+    private static Table rehash(final Segment segment, final int capacity) {
+        final Table table = segment.table;
+        final int live = table.arenaUsed - segment.garbage;
+        final Table rehashed = new Table(capacity, Math.max(INITIAL_ARENA, live * 2));
+        final int mask = capacity - 1;
+        for (int i = 0; i < table.states.length; i++) {
+            if (table.states[i] != FULL) continue;
+            int slot = (table.hashes[i] >>> 6) & mask;
+            while (rehashed.states[slot] != EMPTY) slot = (slot + 1) & mask;
+            final int ref = table.keyRefs[i];
+            final int length = 2 + (((table.arena[ref] & 0xFF) << 8) | (table.arena[ref + 1] & 0xFF));
+            System.arraycopy(table.arena, ref, rehashed.arena, rehashed.arenaUsed, length);
+            rehashed.keyRefs[slot] = rehashed.arenaUsed;
+            rehashed.arenaUsed += length;
+            rehashed.hashes[slot] = table.hashes[i];
+            System.arraycopy(table.records, i * RECORD, rehashed.records, slot * RECORD, RECORD);
+            rehashed.states[slot] = FULL;
+        }
+        segment.table = rehashed;
+        segment.used = segment.size;
+        segment.garbage = 0;
+        return rehashed;
+    }
+
+    private void unset(final byte[] key, final int hash) {
+        final Segment segment = segment(hash);
+        final long stamp = segment.lock.writeLock();
+        try {
+            final Table table = segment.table;
+            final int slot = find(table, key, hash);
+            if (slot == -1) return;
+            table.states[slot] = DELETED;
+            segment.size--;
+            segment.garbage += 2 + key.length;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public KeyDir.Value put(final byte[] key, final KeyDir.Value value) {
+        final int hash = hash(key);
+        synchronized (stripe(hash)) {
+            final KeyDir.Value previous = get(key);
+            set(key, hash, value);
+            return previous;
+        }
+    }
+
+    @Override
+    public KeyDir.Value remove(final byte[] key) {
+        final int hash = hash(key);
+        synchronized (stripe(hash)) {
+            final KeyDir.Value previous = get(key);
+            if (previous != null) unset(key, hash);
+            return previous;
+        }
+    }
+
+    @Override
+    public KeyDir.Value compute(final byte[] key, final Remapping remapping) {
+        final int hash = hash(key);
+        synchronized (stripe(hash)) {
+            final KeyDir.Value current = get(key);
+            final KeyDir.Value updated = remapping.apply(key, current);
+            if (updated != null) {
+                set(key, hash, updated);
+            } else if (current != null) {
+                unset(key, hash);
+            }
+            return updated;
+        }
+    }
+
+    @Override
+    public boolean replace(final byte[] key, final KeyDir.Value expected, final KeyDir.Value updated) {
+        final int hash = hash(key);
+        synchronized (stripe(hash)) {
+            if (!expected.equals(get(key))) return false;
+            set(key, hash, updated);
+            return true;
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (final Segment segment : segments) {
+            final long stamp = segment.lock.readLock();
+            size += segment.size;
+            segment.lock.unlockRead(stamp);
+        }
+        return size;
+    }
+
+    // a segment at a time is copied under its read lock, and the action runs after the lock is released
+    @Override
+    public void forEach(final BiConsumer<byte[], KeyDir.Value> action) {
+        final ArrayList<byte[]> keys = new ArrayList<>();
+        final ArrayList<KeyDir.Value> values = new ArrayList<>();
+        for (final Segment segment : segments) {
+            final long stamp = segment.lock.readLock();
+            try {
+                final Table table = segment.table;
+                for (int slot = 0; slot < table.states.length; slot++) {
+                    if (table.states[slot] != FULL) continue;
+                    final int ref = table.keyRefs[slot];
+                    final int length = ((table.arena[ref] & 0xFF) << 8) | (table.arena[ref + 1] & 0xFF);
+                    keys.add(Arrays.copyOfRange(table.arena, ref + 2, ref + 2 + length));
+                    values.add(read(table, slot));
+                }
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+            for (int i = 0; i < keys.size(); i++) action.accept(keys.get(i), values.get(i));
+            keys.clear();
+            values.clear();
+        }
+    }
+}
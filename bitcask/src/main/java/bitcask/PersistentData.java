@@ -4,123 +4,761 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 public final class PersistentData implements AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(PersistentData.class);
     public static final int APPEND_SIZE_LIMIT = 4 * 1024;
+    public static final int WRITE_BATCH_SIZE = 1024;
 
-    public final ArrayList<FileReader> dataFiles = new ArrayList<>();
+    // sorted by file id, which is also the replay order
+    public final ConcurrentSkipListMap<Integer, FileReader> dataFiles = new ConcurrentSkipListMap<>();
     public final Path path;
+    private final ExecutorService readers;
+    private final MappedRegions regions;
+    private final BitcaskOptions options;
+    private final boolean verifyChecksums;
+    private final ValueCache cache;  // null when caching is disabled
+    private final Metrics metrics;
 
     public volatile int currentFileId = 0;
     public volatile long currentFileBytes = 0;
     public volatile FileOutputStream currentDataFile = null;
+    private HintFile currentHint = new HintFile();
+    // the part of the active file and its hint that reached the file, which a failed write rolls back to
+    private long flushedFileBytes = 0;
+    private int flushedHintSize = currentHint.size();
+    private volatile int failFlushFileId = -1;  // only for tests: the next flush into this file fails
+    // the appends of the current batch that a rollover has sealed in a file, which stay written even if it fails later
+    private int sealedAppends = 0;
 
-    public static final class Entry {
-        public final DataFileEntry entry;
-        public final int fileId;
-        public final long offset;
-        public Entry(final DataFileEntry entry, final int fileId, final long offset) {
-            this.entry = entry;
-            this.fileId = fileId;
-            this.offset = offset;
-        }
+    // while a snapshot pins the files, the files removed by merge stay readable here, and on disk
+    private final TreeMap<Integer, FileReader> retired = new TreeMap<>();  // guarded by itself
+    private int pins = 0;  // guarded by retired
+
+    // group commit: appends are queued for a single writer thread
+    private final LinkedBlockingQueue<Append> appends = new LinkedBlockingQueue<>();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final SyncPolicy syncPolicy;
+    private final Thread writer;
+    private boolean closed = false;  // guarded by appends
+    private long lastSync = 0;
+
+    /**
+     * Receives the entries loaded at startup, without their values. The data files are loaded in parallel, so the
+     * loader is called from several threads, and not in replay order: of the entries of a key, the one with the
+     * greatest (file id, value position) is the latest. Expired entries are loaded too, since they hide the older
+     * entries of their keys like tombstones.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        void load(byte[] key, int valueSize, long timestamp, long expiresAt, int fileId, long valuePos);
     }
 
-    public PersistentData(final Path path, final Consumer<Entry> loader) throws IOException {
+    public PersistentData(final Path path, final Loader loader) throws IOException {
+        this(path, loader, BitcaskOptions.DEFAULT, new Metrics());
+    }
+
+    public PersistentData(final Path path, final Loader loader, final BitcaskOptions options, final Metrics metrics)
+            throws IOException {
+        final long start = System.currentTimeMillis();
         this.path = path;
+        this.options = options;
+        this.metrics = metrics;
+        this.syncPolicy = options.syncPolicy;
+        this.verifyChecksums = options.verifyChecksums;
+        this.cache = options.cacheBytes > 0 ? new ValueCache(options.cacheBytes, metrics) : null;
+        this.regions = options.mappedFiles > 0 ? new MappedRegions(options.mappedFiles) : null;
+        final AtomicInteger readerId = new AtomicInteger();
+        this.readers = Executors.newFixedThreadPool(options.readThreads, runnable -> {
+            final Thread thread = new Thread(runnable, "bitcask-reader-" + readerId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
         Files.createDirectories(path);
-        File current = path.resolve(Bitcask.DATA_FILE_PREFIX + currentFileId).toFile();
-        while (current.exists()) {
+        deleteMergeFiles(path);
+        // merge deletes old files and skips reserved ids, so the ids are not contiguous
+        final ArrayList<Integer> fileIds = listDataFiles(path);
+        // the sealed files are immutable, so they are loaded in parallel on the read executor
+        final ConcurrentLinkedQueue<DataFileScanner> scanners = new ConcurrentLinkedQueue<>();
+        final ArrayList<Future<?>> loads = new ArrayList<>();
+        for (int i = 0; i + 1 < fileIds.size(); i++) {
+            final int fileId = fileIds.get(i);
+            loads.add(readers.submit(() -> {
+                if (HintFile.load(hintFile(fileId), dataFile(fileId).length(), fileId, loader)) return null;
+                // files written before hints existed, or whose hint was lost, get one now, unless the scan stops
+                // short: a sealed file is never shortened, and a hint would hide the bad entry from later scans
+                final HintFile hint = new HintFile();
+                final long length = scan(fileId, hint, loader, scanners, false);
+                if (length == dataFile(fileId).length()) hint.write(hintFile(fileId), length);
+                return null;
+            }));
+        }
+        // meanwhile the last file, the only one that may be active, is loaded here
+        boolean sealed = false;
+        if (!fileIds.isEmpty()) {
+            currentFileId = fileIds.get(fileIds.size() - 1);
+            currentFileBytes = dataFile(currentFileId).length();
+            // a data file has a hint file only if it is sealed
+            sealed = HintFile.load(hintFile(currentFileId), currentFileBytes, currentFileId, loader);
+            if (!sealed) currentFileBytes = scan(currentFileId, currentHint, loader, scanners, true);
+        }
+        try {
+            for (final Future<?> load : loads) load.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        for (final int fileId : fileIds) {
+            final FileReader reader = new FileReader(dataFile(fileId), readers, regions, metrics);
+            if (fileId != currentFileId || sealed) reader.seal();
+            dataFiles.put(fileId, reader);
+        }
+        if (!fileIds.isEmpty() && !sealed && currentFileBytes < options.dataFileSize) {
+            currentDataFile = new FileOutputStream(dataFile(currentFileId), true);
+        } else {
+            if (!fileIds.isEmpty()) dataFiles.get(currentFileId).seal();
+            currentHint = new HintFile();
+            if (!fileIds.isEmpty()) currentFileId++;
             currentFileBytes = 0;
-            try (final FileInputStream input = new FileInputStream(current)) {
-                while (true) {
-                    try {
-                        final DataFileEntry entry = new DataFileEntry(input);
-                        final long offset = currentFileBytes + DataFileEntry.VALUE_OFFSET;
-                        currentFileBytes += entry.data.length;
-                        loader.accept(new Entry(entry, currentFileId, offset));
-                    } catch (final DataFileEntry.EOF e) {
-                        break;
-                    }
-                }
+        }
+        flushedFileBytes = currentFileBytes;
+        flushedHintSize = currentHint.size();
+        this.writer = new Thread(this::write, "bitcask-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        metrics.setRecoveryMillis(System.currentTimeMillis() - start);
+        LOG.info("loaded {} data files in {} ms", fileIds.size(), metrics.getRecoveryMillis());
+    }
+
+    /**
+     * Scans a data file into the loader and the hint, up to a torn tail or the first corrupt entry. Only the tail
+     * file, whose end a crash may have torn, is truncated there. The entries after a bad one in a sealed file are
+     * left on disk, and reported, since they were written whole.
+     *
+     * @param truncate whether to truncate the file at the end of its valid prefix
+     * @return the length of the valid prefix of the data file
+     */
+    private long scan(final int fileId, final HintFile hint, final Loader loader,
+                      final ConcurrentLinkedQueue<DataFileScanner> scanners, final boolean truncate)
+            throws IOException {
+        DataFileScanner scanner = scanners.poll();
+        if (scanner == null) scanner = new DataFileScanner(options.scanBufferSize);
+        final File file = dataFile(fileId);
+        final long length = scanner.scan(file, fileId, (key, valueSize, timestamp, expiresAt, id, valuePos) -> {
+            hint.add(timestamp, expiresAt, key, valueSize, valuePos);
+            loader.load(key, valueSize, timestamp, expiresAt, id, valuePos);
+        });
+        scanners.add(scanner);
+        if (file.length() > length && !truncate) {
+            LOG.error("sealed data file {} has an invalid entry at {}, so the {} bytes after it are not loaded",
+                    fileId, length, file.length() - length);
+        } else if (file.length() > length) {
+            try (final RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+                output.getChannel().truncate(length);
             }
-            if (current.length() > currentFileBytes) {
-                try (final RandomAccessFile file = new RandomAccessFile(current, "rw")) {
-                    file.getChannel().truncate(currentFileBytes);
+        }
+        return length;
+    }
+
+    private static ArrayList<Integer> listDataFiles(final Path path) throws IOException {
+        final ArrayList<Integer> fileIds = new ArrayList<>();
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(path, Bitcask.DATA_FILE_PREFIX + "*")) {
+            for (final Path file : files) {
+                final String suffix = file.getFileName().toString().substring(Bitcask.DATA_FILE_PREFIX.length());
+                try {
+                    fileIds.add(Integer.parseInt(suffix));
+                } catch (final NumberFormatException e) {
+                    LOG.warn("ignore unknown file {}", file);
                 }
             }
-            dataFiles.add(new FileReader(current));
-            currentFileId++;
-            current = path.resolve(Bitcask.DATA_FILE_PREFIX + currentFileId).toFile();
         }
-        if (currentFileBytes < Bitcask.DATA_FILE_SIZE_LIMIT) {
-            if (currentFileId > 0) {
-                currentFileId--;
-                currentDataFile = new FileOutputStream(path.resolve(Bitcask.DATA_FILE_PREFIX + currentFileId).toFile(), true);
+        Collections.sort(fileIds);
+        return fileIds;
+    }
+
+    /**
+     * Deletes the outputs of a merge that did not finish, which are torn and have no hint, while its inputs are
+     * still in place.
+     */
+    private static void deleteMergeFiles(final Path path) throws IOException {
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(path, Bitcask.MERGE_FILE_PREFIX + "*")) {
+            for (final Path file : files) {
+                LOG.warn("delete unfinished merge output {}", file);
+                Files.delete(file);
             }
-        } else {
-            currentFileBytes = 0;
         }
     }
 
-    public String read(final int fileId, final long pos, final short size) throws IOException, InterruptedException {
-        final FileReader reader;
-        // there will not be too many files, so it is not bottleneck
-        synchronized (dataFiles) {
-            reader = dataFiles.get(fileId);
+    public File dataFile(final int fileId) {
+        return path.resolve(Bitcask.DATA_FILE_PREFIX + fileId).toFile();
+    }
+
+    public File hintFile(final int fileId) {
+        return path.resolve(Bitcask.HINT_FILE_PREFIX + fileId).toFile();
+    }
+
+    /**
+     * @return the file that a merge writes the data file under until it is complete
+     */
+    public File mergeFile(final int fileId) {
+        return path.resolve(Bitcask.MERGE_FILE_PREFIX + fileId).toFile();
+    }
+
+    /**
+     * Seals the active file, forced to disk first unless the sync policy never forces, since the interval syncs only
+     * cover the active file.
+     */
+    private void sealCurrentDataFile() throws IOException {
+        if (syncPolicy.mode != SyncPolicy.Mode.NONE) sync();
+        currentDataFile.close();
+        currentDataFile = null;
+        currentHint.write(hintFile(currentFileId), currentFileBytes);
+        dataFiles.get(currentFileId).seal();
+        currentHint = new HintFile();
+        currentFileBytes = 0;
+        flushedFileBytes = 0;
+        flushedHintSize = currentHint.size();
+        currentFileId++;
+        metrics.rollovers.increment();
+    }
+
+    private FileReader reader(final int fileId) {
+        final FileReader reader = dataFiles.get(fileId);
+        if (reader != null) return reader;
+        synchronized (retired) {
+            return retired.get(fileId);
         }
+    }
+
+    public byte[] read(final int fileId, final long pos, final int size) throws IOException, InterruptedException {
+        final FileReader reader = reader(fileId);
+        // the file may have been removed by merge after the caller looked up its position
+        if (reader == null) throw new FileNotFoundException("data file " + fileId + " does not exist");
         return reader.read(pos, size);
     }
 
-    private synchronized KeyDir.Value append(final DataFileEntry entry, final boolean crash) throws IOException {
-        if (currentDataFile == null) {
-            final File current = path.resolve(Bitcask.DATA_FILE_PREFIX + currentFileId).toFile();
-            currentDataFile = new FileOutputStream(current);
-            synchronized (dataFiles) {
-                dataFiles.add(new FileReader(current));
+    /**
+     * Reads the value of an entry whose key has the given size, from the cache if enabled, and checks the CRC of the
+     * entry if enabled.
+     */
+    public byte[] read(final int fileId, final long pos, final int keySize, final int size)
+            throws IOException, InterruptedException {
+        if (size == -1) return null;
+        if (cache == null) return readValue(fileId, pos, keySize, size);
+        final byte[] cached = cache.get(fileId, pos);
+        if (cached != null) return cached;
+        final byte[] value = readValue(fileId, pos, keySize, size);
+        cache.put(fileId, pos, value);
+        return value;
+    }
+
+    private byte[] readValue(final int fileId, final long pos, final int keySize, final int size)
+            throws IOException, InterruptedException {
+        if (!verifyChecksums) return read(fileId, pos, size);
+        final int valueOffset = DataFileEntry.HEADER_SIZE + keySize;
+        final byte[] entry = read(fileId, pos - valueOffset, valueOffset + size);
+        if (DataFileEntry.checksum(entry, 0, entry.length) != ByteBuffer.wrap(entry).getInt()) {
+            throw new DataFileEntry.Corrupt("CRC mismatch in data file " + fileId + " at " + (pos - valueOffset));
+        }
+        return Arrays.copyOfRange(entry, valueOffset, entry.length);
+    }
+
+    /**
+     * Reads like {@link #read(int, long, int, int)}, without blocking: the future is completed by the read executor,
+     * or at once from the cache or a mapped file.
+     */
+    public CompletableFuture<byte[]> readAsync(final int fileId, final long pos, final int keySize, final int size) {
+        if (size == -1) return CompletableFuture.completedFuture(null);
+        return readAll(fileId, new long[]{pos}, new int[]{keySize}, new int[]{size}).thenApply(values -> values[0]);
+    }
+
+    /**
+     * Reads several values of one data file in one task of the read executor, like
+     * {@link #read(int, long, int, int)}. The positions should be ascending.
+     */
+    public CompletableFuture<byte[][]> readAll(final int fileId, final long[] positions, final int[] keySizes,
+                                               final int[] sizes) {
+        if (cache == null) return readValues(fileId, positions, keySizes, sizes);
+        final byte[][] values = new byte[positions.length][];
+        int missing = 0;
+        for (int i = 0; i < positions.length; i++) {
+            values[i] = cache.get(fileId, positions[i]);
+            if (values[i] == null) missing++;
+        }
+        if (missing == 0) return CompletableFuture.completedFuture(values);
+        final int[] misses = new int[missing];
+        final long[] missingPositions = new long[missing];
+        final int[] missingKeySizes = new int[missing];
+        final int[] missingSizes = new int[missing];
+        for (int i = 0, j = 0; i < positions.length; i++) {
+            if (values[i] != null) continue;
+            misses[j] = i;
+            missingPositions[j] = positions[i];
+            missingKeySizes[j] = keySizes[i];
+            missingSizes[j] = sizes[i];
+            j++;
+        }
+        return readValues(fileId, missingPositions, missingKeySizes, missingSizes).thenApply(read -> {
+            for (int j = 0; j < misses.length; j++) {
+                values[misses[j]] = read[j];
+                cache.put(fileId, missingPositions[j], read[j]);
             }
+            return values;
+        });
+    }
+
+    private CompletableFuture<byte[][]> readValues(final int fileId, final long[] positions, final int[] keySizes,
+                                                   final int[] sizes) {
+        final FileReader reader = reader(fileId);
+        if (reader == null) {
+            final CompletableFuture<byte[][]> missing = new CompletableFuture<>();
+            missing.completeExceptionally(new FileNotFoundException("data file " + fileId + " does not exist"));
+            return missing;
         }
-        final KeyDir.Value result = new KeyDir.Value(currentFileId, entry.valueSize, currentFileBytes + DataFileEntry.VALUE_OFFSET, entry.timestamp);
-        if (entry.data.length > APPEND_SIZE_LIMIT) {
-            currentDataFile.write(entry.data, 0, APPEND_SIZE_LIMIT);
-            currentDataFile.flush();
-            if (crash) return null;
-            currentDataFile.write(entry.data, APPEND_SIZE_LIMIT, entry.data.length - APPEND_SIZE_LIMIT);
-            currentDataFile.flush();
-        } else {
-            currentDataFile.write(entry.data);
-            currentDataFile.flush();
+        if (!verifyChecksums) return reader.readAll(positions, sizes);
+        final long[] entryPositions = new long[positions.length];
+        final int[] entrySizes = new int[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            entryPositions[i] = positions[i] - DataFileEntry.HEADER_SIZE - keySizes[i];
+            entrySizes[i] = DataFileEntry.HEADER_SIZE + keySizes[i] + sizes[i];
         }
+        return reader.readAll(entryPositions, entrySizes).thenApply(entries -> {
+            for (int i = 0; i < entries.length; i++) {
+                if (DataFileEntry.checksum(entries[i], 0, entries[i].length) != ByteBuffer.wrap(entries[i]).getInt()) {
+                    throw new CompletionException(new DataFileEntry.Corrupt(
+                            "CRC mismatch in data file " + fileId + " at " + entryPositions[i]));
+                }
+                entries[i] = Arrays.copyOfRange(entries[i], DataFileEntry.HEADER_SIZE + keySizes[i], entries[i].length);
+            }
+            return entries;
+        });
+    }
+
+    public static final class Sealed {
+        public final int[] fileIds;  // in replay order
+        public final int firstReservedId;
+        public final int endReservedId;  // exclusive: the next file the writer opens takes this id
+        public Sealed(final int[] fileIds, final int firstReservedId) {
+            this.fileIds = fileIds;
+            this.firstReservedId = firstReservedId;
+            this.endReservedId = firstReservedId + fileIds.length;
+        }
+    }
+
+    /**
+     * Seals the active data file and reserves one id per sealed file for the merge output, so that the merged
+     * files are replayed after all of their inputs but before any file written later.
+     */
+    public synchronized Sealed sealForMerge() throws IOException {
+        if (currentDataFile != null) sealCurrentDataFile();
+        final int[] fileIds = new int[dataFiles.size()];
+        int i = 0;
+        for (final int fileId : dataFiles.keySet()) fileIds[i++] = fileId;
+        final Sealed sealed = new Sealed(fileIds, currentFileId);
+        currentFileId += fileIds.length;
+        return sealed;
+    }
+
+    public BitcaskOptions options() {
+        return options;
+    }
+
+    public int sealedFileCount() {
+        return currentDataFile == null ? dataFiles.size() : dataFiles.headMap(currentFileId).size();
+    }
+
+    public void addDataFile(final int fileId) throws IOException {
+        dataFiles.put(fileId, new FileReader(dataFile(fileId), readers, regions, metrics));
+    }
+
+    public void sealDataFile(final int fileId) {
+        dataFiles.get(fileId).seal();
+    }
+
+    /**
+     * Removes the data file, or only retires it while a snapshot pins the files: it stays readable and on disk until
+     * the last snapshot is released.
+     */
+    public void removeDataFile(final int fileId) throws Exception {
+        final FileReader reader = dataFiles.remove(fileId);
+        metrics.removeFile(fileId);
+        synchronized (retired) {
+            if (pins > 0) {
+                if (reader != null) retired.put(fileId, reader);
+                return;
+            }
+        }
+        deleteDataFile(fileId, reader);
+    }
+
+    private void deleteDataFile(final int fileId, final FileReader reader) throws Exception {
+        if (reader != null) reader.close();
+        if (cache != null) cache.removeFile(fileId);
+        Files.deleteIfExists(hintFile(fileId).toPath());
+        Files.deleteIfExists(dataFile(fileId).toPath());
+    }
+
+    /**
+     * The data files at a point in time: the sealed ones, and the active one up to its length at that time.
+     * The files being written by a merge are left out, since their inputs hold the same entries.
+     */
+    public static final class Pinned {
+        public final int[] sealedFileIds;  // in replay order
+        public final int activeFileId;  // -1 if there is no active file
+        public final long activeFileBytes;
+        private Pinned(final int[] sealedFileIds, final int activeFileId, final long activeFileBytes) {
+            this.sealedFileIds = sealedFileIds;
+            this.activeFileId = activeFileId;
+            this.activeFileBytes = activeFileBytes;
+        }
+    }
+
+    /**
+     * Keeps all data files, including those that merge removes from now on, until {@link #unpin()}.
+     * The caller must hold back the appends, so that the active file does not grow meanwhile.
+     */
+    public synchronized Pinned pin() {
+        // pinned before the files are listed, so that a file listed cannot be deleted
+        synchronized (retired) {
+            pins++;
+        }
+        final ArrayList<Integer> sealed = new ArrayList<>();
+        for (final Map.Entry<Integer, FileReader> file : dataFiles.entrySet()) {
+            if (file.getValue().sealed()) sealed.add(file.getKey());
+        }
+        final boolean active = currentDataFile != null;
+        return new Pinned(sealed.stream().mapToInt(Integer::intValue).toArray(),
+                active ? currentFileId : -1, active ? currentFileBytes : 0);
+    }
+
+    /**
+     * Releases a pin, and deletes the retired files (oldest first, as merge does) once no pin is left.
+     */
+    public void unpin() throws Exception {
+        final ArrayList<Map.Entry<Integer, FileReader>> deleted;
+        synchronized (retired) {
+            if (--pins > 0) return;
+            deleted = new ArrayList<>(retired.entrySet());
+            retired.clear();
+        }
+        for (final Map.Entry<Integer, FileReader> file : deleted) deleteDataFile(file.getKey(), file.getValue());
+    }
+
+    /**
+     * Waits until the appends queued so far are written and their callbacks have run.
+     */
+    public void barrier() throws IOException {
+        await(append(null, false, null));
+    }
+
+    private static final class Append {
+        private final DataFileEntry entry;
+        private final boolean crash;
+        private final Consumer<KeyDir.Value> written;  // may be null
+        private final CompletableFuture<KeyDir.Value> result = new CompletableFuture<>();
+        private KeyDir.Value value = null;
+        private final DataFileEntry[] batch;  // the entries of an atomic batch, instead of the entry
+        private KeyDir.Value[] values = null;
+        private Append(final DataFileEntry entry, final boolean crash, final Consumer<KeyDir.Value> written) {
+            this.entry = entry;
+            this.crash = crash;
+            this.written = written;
+            this.batch = null;
+        }
+
+        private Append(final DataFileEntry[] batch) {
+            this.entry = null;
+            this.crash = false;
+            this.written = null;
+            this.batch = batch;
+        }
+
+        private void complete() {
+            try {
+                if (written != null && value != null) written.accept(value);
+                result.complete(value);
+            } catch (final RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    // tells the writer to stop after the appends queued before it
+    private static final Append STOP = new Append(null, false, null);
+
+    private void write() {
+        final ArrayList<Append> batch = new ArrayList<>();
+        while (true) {
+            try {
+                final Append first = syncPolicy.mode == SyncPolicy.Mode.INTERVAL ?
+                        appends.poll(syncPolicy.intervalMs, TimeUnit.MILLISECONDS) : appends.take();
+                if (first != null) {
+                    batch.add(first);
+                    appends.drainTo(batch, options.writeBatchSize - 1);
+                }
+            } catch (final InterruptedException e) {
+                return;
+            }
+            final boolean stop = batch.remove(STOP);
+            int written = batch.size();
+            IOException error = null;
+            try {
+                writeBatch(batch);
+            } catch (final IOException e) {
+                written = sealedAppends;
+                error = e;
+                LOG.error("fail to write {} entries", batch.size() - written, e);
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                if (i < written) batch.get(i).complete();
+                else batch.get(i).result.completeExceptionally(error);
+            }
+            batch.clear();
+            if (stop) return;
+        }
+    }
+
+    /**
+     * Writes the batch, or fails the appends after the last file it sealed, whose entries are rolled back, while
+     * those in the sealed files are written for good.
+     */
+    private synchronized void writeBatch(final ArrayList<Append> batch) throws IOException {
+        sealedAppends = 0;
+        try {
+            writeAppends(batch);
+        } catch (final IOException e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Forgets the entries queued since the last flush, and cuts off whatever part of them a failed write left in
+     * the file, so that the next append goes where the positions and the hint say.
+     */
+    private void rollback() {
+        pending.reset();
+        currentFileBytes = flushedFileBytes;
+        currentHint.truncate(flushedHintSize);
+        if (currentDataFile == null) return;
+        try {
+            currentDataFile.getChannel().truncate(flushedFileBytes);
+        } catch (final IOException e) {
+            LOG.error("fail to truncate data file {} to {} bytes", currentFileId, flushedFileBytes, e);
+        }
+    }
+
+    private void writeAppends(final ArrayList<Append> batch) throws IOException {
+        for (int a = 0; a < batch.size(); a++) {
+            final Append append = batch.get(a);
+            final DataFileEntry entry = append.entry;
+            if (entry == null && append.batch == null) continue;  // a barrier
+            if (currentDataFile == null) {
+                final File current = dataFile(currentFileId);
+                currentDataFile = new FileOutputStream(current);
+                dataFiles.put(currentFileId, new FileReader(current, readers, regions, metrics));
+            }
+            if (currentFileBytes == 0) {
+                pending.write(DataFileEntry.FILE_HEADER);
+                currentFileBytes = DataFileEntry.FILE_HEADER.length;
+            }
+            if (append.crash && entry.data.length > APPEND_SIZE_LIMIT) {
+                // only for tests: leave a torn entry at the end of the file, as a crash in the middle of a write does
+                flush();
+                currentDataFile.write(entry.data, 0, APPEND_SIZE_LIMIT);
+                continue;
+            }
+            if (append.batch == null) {
+                append.value = write(entry);
+            } else {
+                // framed by markers in one file, so that recovery sees the whole batch or drops it
+                final long timestamp = append.batch.length == 0 ? 0 : append.batch[0].timestamp;
+                write(DataFileEntry.marker(DataFileEntry.BATCH_BEGIN, timestamp, append.batch.length));
+                append.values = new KeyDir.Value[append.batch.length];
+                for (int i = 0; i < append.batch.length; i++) append.values[i] = write(append.batch[i]);
+                write(DataFileEntry.marker(DataFileEntry.BATCH_COMMIT, timestamp, append.batch.length));
+            }
+            if (currentFileBytes > options.dataFileSize) {
+                flush();
+                sealCurrentDataFile();
+                sealedAppends = a + 1;
+            }
+        }
+        if (pending.size() > 0) flush();
+        if (currentDataFile == null) return;
+        if (syncPolicy.mode == SyncPolicy.Mode.BATCH ||
+                syncPolicy.mode == SyncPolicy.Mode.INTERVAL && System.currentTimeMillis() - lastSync >= syncPolicy.intervalMs) {
+            sync();
+        }
+    }
+
+    /**
+     * Queues the entry for the next flush.
+     *
+     * @return its position, or null for a marker, which leaves no trace in the hint file
+     */
+    private KeyDir.Value write(final DataFileEntry entry) {
+        final long valuePos = currentFileBytes + entry.valueOffset();
+        pending.write(entry.data, 0, entry.data.length);
         currentFileBytes += entry.data.length;
-        if (currentFileBytes > Bitcask.DATA_FILE_SIZE_LIMIT) {
-            currentFileBytes = 0;
-            currentFileId++;
-            currentDataFile.close();
-            currentDataFile = null;
+        if (entry.marker()) return null;
+        currentHint.add(entry.timestamp, entry.expiresAt, entry.key, entry.valueSize, valuePos);
+        return new KeyDir.Value(currentFileId, entry.valueSize, valuePos, entry.timestamp, entry.expiresAt);
+    }
+
+    private void flush() throws IOException {
+        final long start = System.nanoTime();
+        if (failFlushFileId == currentFileId) {
+            failFlushFileId = -1;
+            // only for tests: a failing write may leave a part of the batch in the file, as a full disk does
+            currentDataFile.write(pending.toByteArray(), 0, pending.size() / 2);
+            throw new IOException("fail to write data file " + currentFileId);
+        }
+        pending.writeTo(currentDataFile);
+        // counted once written, so that a failed batch, which is rolled back, leaves no bytes behind
+        metrics.bytesAppended.add(pending.size());
+        pending.reset();
+        flushedFileBytes = currentFileBytes;
+        flushedHintSize = currentHint.size();
+        metrics.flush.record(start);
+    }
+
+    private void sync() throws IOException {
+        final long start = System.nanoTime();
+        currentDataFile.getChannel().force(false);
+        lastSync = System.currentTimeMillis();
+        metrics.sync.record(start);
+    }
+
+    private CompletableFuture<KeyDir.Value> append(final DataFileEntry entry, final boolean crash,
+                                                   final Consumer<KeyDir.Value> written) {
+        return append(new Append(entry, crash, written));
+    }
+
+    private CompletableFuture<KeyDir.Value> append(final Append append) {
+        // never queue behind STOP, or the append would never complete
+        synchronized (appends) {
+            if (closed) {
+                append.result.completeExceptionally(new IOException("persistent data is closed"));
+            } else {
+                appends.add(append);
+            }
+        }
+        return append.result;
+    }
+
+    /**
+     * Queues the entry for the writer, which writes the queued entries in one batch.
+     * The future completes when the entry is written, and forced to disk if the sync policy asks for it.
+     */
+    public CompletableFuture<KeyDir.Value> appendAsync(final DataFileEntry entry) {
+        return append(entry, false, null);
+    }
+
+    /**
+     * Like {@link #appendAsync(DataFileEntry)}, and the writer thread passes the position of the written entry to
+     * {@code written} before it completes the future. The writer calls it in the order of the appends, so updates
+     * made by {@code written} are applied in the order of the entries in the data files.
+     */
+    public CompletableFuture<KeyDir.Value> appendAsync(final DataFileEntry entry,
+                                                       final Consumer<KeyDir.Value> written) {
+        return append(entry, false, written);
+    }
+
+    /**
+     * Writes the entries as one atomic batch: contiguous in one data file, between a {@link DataFileEntry#BATCH_BEGIN}
+     * and a {@link DataFileEntry#BATCH_COMMIT} marker, so that recovery loads all of them or none. It returns once
+     * the batch is written, and forced to disk if the sync policy asks for it.
+     *
+     * @return the positions of the entries, in order
+     */
+    public List<KeyDir.Value> appendBatch(final List<DataFileEntry> entries) throws IOException {
+        final Append append = new Append(entries.toArray(new DataFileEntry[0]));
+        await(append(append));
+        return Arrays.asList(append.values);
+    }
+
+    private static KeyDir.Value await(final CompletableFuture<KeyDir.Value> result) throws IOException {
+        try {
+            return result.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
         }
-        return result;
     }
 
     public KeyDir.Value append(final DataFileEntry entry) throws IOException {
-        return append(entry, false);
+        return await(appendAsync(entry));
+    }
+
+    /**
+     * Only for tests: appends the entry with a write that fails halfway.
+     */
+    public void appendAndFail(final DataFileEntry entry) throws IOException {
+        failFlushIn(currentFileId);
+        append(entry);
+    }
+
+    /**
+     * Only for tests: the next flush into the data file fails halfway.
+     */
+    void failFlushIn(final int fileId) {
+        failFlushFileId = fileId;
     }
 
     public void appendAndCrash(final DataFileEntry entry) throws IOException {
-        if (append(entry, true) != null) {
-            throw new IOException("Expect to crash but no crash");
+        try {
+            if (append(entry, true, null).get() != null) {
+                throw new IOException("Expect to crash but no crash");
+            }
+        } catch (final InterruptedException | ExecutionException e) {
+            throw new IOException(e);
         }
     }
 
     @Override
     public void close() throws Exception {
+        synchronized (appends) {
+            closed = true;
+            appends.add(STOP);
+        }
+        writer.join();
         if (currentDataFile != null) {
             currentDataFile.close();
         }
-        for (final FileReader reader : dataFiles) reader.close();
+        for (final FileReader reader : dataFiles.values()) reader.close();
+        synchronized (retired) {
+            for (final FileReader reader : retired.values()) reader.close();
+        }
+        readers.shutdown();
+        readers.awaitTermination(1, TimeUnit.MINUTES);
     }
 }
@@ -0,0 +1,300 @@
+package bitcask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hash-partitions the keys over independent stores, one per directory, e.g. one per disk, so that every shard has
+ * its own writer thread, active data file, readers and merger, and writes scale with the shards. A key always maps
+ * to the same shard, so the directories must be given in the same order on every open, which a {@code shard} file
+ * in each directory checks. The operations of one key keep the guarantees of {@link Bitcask}, while the keys of a
+ * multi-key operation are split by shard and the shards run in parallel: a multiPut is atomic per shard, not as
+ * a whole. Every shard takes the same options, so the read threads and the cache add up over the shards.
+ */
+public class ShardedBitcask implements KVStoreRemote, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedBitcask.class);
+
+    public static final String SHARD_FILE = "shard";
+
+    final Bitcask[] shards;
+    private final List<Integer> all = new ArrayList<>();  // the ids of all shards
+    private final ExecutorService executor;
+
+    public ShardedBitcask(final List<Path> paths) throws IOException {
+        this(paths, BitcaskOptions.DEFAULT);
+    }
+
+    public ShardedBitcask(final List<Path> paths, final BitcaskOptions options) throws IOException {
+        if (paths.isEmpty()) throw new IllegalArgumentException("no shard directory");
+        this.shards = new Bitcask[paths.size()];
+        for (int s = 0; s < shards.length; s++) all.add(s);
+        final AtomicInteger threadId = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(paths.size(), runnable -> {
+            final Thread thread = new Thread(runnable, "bitcask-shard-" + threadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // the shards recover in parallel
+        final ArrayList<Future<Bitcask>> opens = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            final int shard = i;
+            opens.add(executor.submit(() -> {
+                checkShard(paths.get(shard), shard, shards.length);
+                return new Bitcask(paths.get(shard), options);
+            }));
+        }
+        IOException error = null;
+        for (int i = 0; i < shards.length; i++) {
+            try {
+                shards[i] = opens.get(i).get();
+            } catch (final ExecutionException e) {
+                if (error == null) error = e.getCause() instanceof IOException ? (IOException) e.getCause() :
+                        new IOException("fail to open shard " + i, e.getCause());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (error == null) error = new IOException("interrupted while opening shard " + i, e);
+            }
+        }
+        if (error != null) {
+            final Exception closing = closeShards();
+            if (closing != null) error.addSuppressed(closing);
+            executor.shutdown();
+            throw error;
+        }
+        LOG.info("open {} shards", shards.length);
+    }
+
+    /**
+     * Records the place of the directory among the shards, or checks it if already recorded.
+     */
+    private static void checkShard(final Path path, final int shard, final int count) throws IOException {
+        Files.createDirectories(path);
+        final Path file = path.resolve(SHARD_FILE);
+        final String expected = shard + " " + count;
+        if (!Files.exists(file)) {
+            Files.write(file, expected.getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        final String recorded = new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+        if (!recorded.equals(expected)) {
+            throw new IOException(path + " is shard " + recorded.replace(" ", " of ") + ", not " + shard + " of " +
+                    count);
+        }
+    }
+
+    /**
+     * @return the shard of the key: a mix of its hash (the finalizer of MurmurHash3, as the write stripes take the
+     * high bits of another product of the same hash), reduced to the shard count by a multiply and a shift
+     */
+    int shard(final byte[] key) {
+        int h = Arrays.hashCode(key);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (int) (((h & 0xFFFFFFFFL) * shards.length) >>> 32);
+    }
+
+    /**
+     * The keys of a multi-key operation, split by shard.
+     */
+    private final class Partition {
+        private final int[][] positions = new int[shards.length][];  // the positions of the keys of each shard
+        private final ArrayList<Integer> used = new ArrayList<>();  // the shards with keys, in order
+
+        private Partition(final byte[][] keys) {
+            final int[] shardOf = new int[keys.length];
+            final int[] counts = new int[shards.length];
+            for (int i = 0; i < keys.length; i++) counts[shardOf[i] = shard(keys[i])]++;
+            for (int s = 0; s < shards.length; s++) {
+                positions[s] = new int[counts[s]];
+                if (counts[s] > 0) used.add(s);
+                counts[s] = 0;
+            }
+            for (int i = 0; i < keys.length; i++) positions[shardOf[i]][counts[shardOf[i]]++] = i;
+        }
+
+        private byte[][] pick(final byte[][] array, final int shard) {
+            final byte[][] picked = new byte[positions[shard].length][];
+            for (int j = 0; j < picked.length; j++) picked[j] = array[positions[shard][j]];
+            return picked;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ShardTask<T> {
+        T run(int shard) throws Exception;
+    }
+
+    /**
+     * Runs the task on the shards in parallel, the last one on the calling thread, and waits for all of them.
+     *
+     * @return the results, in the order of the shards
+     */
+    private <T> List<T> fanOut(final List<Integer> ids, final ShardTask<T> task) throws RemoteException {
+        final ArrayList<Future<T>> futures = new ArrayList<>(ids.size());
+        for (int i = 0; i + 1 < ids.size(); i++) {
+            final int shard = ids.get(i);
+            futures.add(executor.submit(() -> task.run(shard)));
+        }
+        final ArrayList<T> results = new ArrayList<>(ids.size());
+        Throwable error = null;
+        T last = null;
+        if (!ids.isEmpty()) {
+            try {
+                last = task.run(ids.get(ids.size() - 1));
+            } catch (final Exception e) {
+                error = e;
+            }
+        }
+        for (final Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (final ExecutionException e) {
+                if (error == null) error = e.getCause();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (error == null) error = e;
+            }
+        }
+        if (error instanceof RemoteException) throw (RemoteException) error;
+        if (error instanceof RuntimeException) throw (RuntimeException) error;
+        if (error instanceof Error) throw (Error) error;
+        if (error != null) throw new RemoteException("shard error", error);
+        if (!ids.isEmpty()) results.add(last);
+        return results;
+    }
+
+    @Override
+    public byte[] get(final byte[] key) throws RemoteException {
+        return shards[shard(key)].get(key);
+    }
+
+    @Override
+    public void put(final byte[] key, final byte[] value) throws RemoteException {
+        shards[shard(key)].put(key, value);
+    }
+
+    @Override
+    public void put(final byte[] key, final byte[] value, final long ttlMillis) throws RemoteException {
+        shards[shard(key)].put(key, value, ttlMillis);
+    }
+
+    @Override
+    public boolean putIfAbsent(final byte[] key, final byte[] value) throws RemoteException {
+        return shards[shard(key)].putIfAbsent(key, value);
+    }
+
+    @Override
+    public boolean compareAndSet(final byte[] key, final byte[] expected, final byte[] value) throws RemoteException {
+        return shards[shard(key)].compareAndSet(key, expected, value);
+    }
+
+    @Override
+    public long increment(final byte[] key, final long delta) throws RemoteException {
+        return shards[shard(key)].increment(key, delta);
+    }
+
+    @Override
+    public byte[][] multiGet(final byte[][] keys) throws RemoteException {
+        final Partition partition = new Partition(keys);
+        final byte[][] result = new byte[keys.length][];
+        fanOut(partition.used, shard -> {
+            final byte[][] read = shards[shard].multiGet(partition.pick(keys, shard));
+            for (int j = 0; j < read.length; j++) result[partition.positions[shard][j]] = read[j];
+            return null;
+        });
+        return result;
+    }
+
+    /**
+     * Puts all key-value pairs, where a null value deletes the key, as one atomic batch per shard.
+     */
+    @Override
+    public void multiPut(final byte[][] keys, final byte[][] values) throws RemoteException {
+        if (keys.length != values.length) throw new IllegalArgumentException("keys and values differ in length");
+        final Partition partition = new Partition(keys);
+        fanOut(partition.used, shard -> {
+            shards[shard].multiPut(partition.pick(keys, shard), partition.pick(values, shard));
+            return null;
+        });
+    }
+
+    @Override
+    public void multiDelete(final byte[][] keys) throws RemoteException {
+        multiPut(keys, new byte[keys.length][]);
+    }
+
+    /**
+     * Scans every shard for up to limit pairs in parallel, and merges them in key order.
+     */
+    @Override
+    public List<Map.Entry<byte[], byte[]>> scan(final byte[] fromKey, final byte[] toKey, final int limit)
+            throws RemoteException {
+        final ArrayList<Map.Entry<byte[], byte[]>> result = new ArrayList<>();
+        for (final List<Map.Entry<byte[], byte[]>> scanned : fanOut(all,
+                shard -> shards[shard].scan(fromKey, toKey, limit))) {
+            result.addAll(scanned);
+        }
+        result.sort((a, b) -> Key.compare(a.getKey(), b.getKey()));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * @return the number of keys with a value over all shards, including expired ones until they are swept
+     */
+    public int size() {
+        int size = 0;
+        for (final Bitcask shard : shards) size += shard.size();
+        return size;
+    }
+
+    public void merge() throws Exception {
+        fanOut(all, shard -> {
+            shards[shard].merge();
+            return null;
+        });
+    }
+
+    /**
+     * Closes every shard, even if some fail to close.
+     *
+     * @return the first failure, with the others suppressed, or null
+     */
+    private Exception closeShards() {
+        Exception error = null;
+        for (final Bitcask shard : shards) {
+            if (shard == null) continue;
+            try {
+                shard.close();
+            } catch (final Exception e) {
+                if (error == null) error = e;
+                else error.addSuppressed(e);
+            }
+        }
+        return error;
+    }
+
+    @Override
+    public void close() throws Exception {
+        final Exception error = closeShards();
+        executor.shutdown();
+        if (error != null) throw error;
+    }
+}
@@ -0,0 +1,169 @@
+package bitcask;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A consistent view of the store at one point in time, taken by {@link KeyDir#snapshot()}. It holds the keys and
+ * the positions of their values in key order, and the data files stay on disk until it is closed, even if merge
+ * replaces them, so the values are read from the files on demand. An entry never changes once written, so
+ * the reads need no lock. A value that expires after the snapshot is taken is still in the snapshot.
+ */
+public final class Snapshot implements AutoCloseable {
+    private final KeyDir keyDir;
+    private final PersistentData data;
+    private final PersistentData.Pinned pinned;
+    private final byte[][] keys;
+    private final KeyDir.Value[] values;
+    private volatile boolean closed = false;
+    public final long timestamp;
+
+    Snapshot(final KeyDir keyDir, final PersistentData.Pinned pinned, final long timestamp, final byte[][] keys,
+             final KeyDir.Value[] values) {
+        this.keyDir = keyDir;
+        this.data = keyDir.data();
+        this.pinned = pinned;
+        this.timestamp = timestamp;
+        this.keys = keys;
+        this.values = values;
+    }
+
+    private void checkOpen() {
+        if (closed) throw new IllegalStateException("snapshot is closed");
+    }
+
+    /**
+     * @return the index of the least key not less than the key
+     */
+    private int lowerBound(final byte[] key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (Key.compare(keys[mid], key) < 0) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public byte[] get(final byte[] key) throws IOException, InterruptedException {
+        checkOpen();
+        final int i = lowerBound(key);
+        if (i == keys.length || !Arrays.equals(keys[i], key)) return null;
+        return data.read(values[i].fileId, values[i].valuePos, key.length, values[i].valueSize);
+    }
+
+    /**
+     * Iterates the key-value pairs with keys in [fromKey, toKey) in ascending key order, up to limit pairs, where
+     * a null bound is open, like {@link KeyDir#scan(byte[], byte[], int)} but with any index. The values of
+     * {@link KeyDir#SCAN_PAGE} keys at a time are read in (file id, position) order.
+     */
+    public Iterator<Map.Entry<byte[], byte[]>> scan(final byte[] fromKey, final byte[] toKey, final int limit) {
+        if (limit < 0) throw new IllegalArgumentException("limit must not be negative");
+        final int start = fromKey == null ? 0 : lowerBound(fromKey);
+        final int end = Math.max(start, Math.min(toKey == null ? keys.length : lowerBound(toKey),
+                (int) Math.min((long) start + limit, keys.length)));
+        return new Iterator<>() {
+            private final ArrayDeque<Map.Entry<byte[], byte[]>> page = new ArrayDeque<>();
+            private int next = start;
+
+            @Override
+            public boolean hasNext() {
+                if (page.isEmpty() && next < end) fill();
+                return !page.isEmpty();
+            }
+
+            @Override
+            public Map.Entry<byte[], byte[]> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return page.poll();
+            }
+
+            private void fill() {
+                checkOpen();
+                final int to = Math.min(next + KeyDir.SCAN_PAGE, end);
+                final byte[][] read;
+                try {
+                    read = keyDir.readAll(Arrays.copyOfRange(keys, next, to), Arrays.copyOfRange(values, next, to),
+                            false);
+                } catch (IOException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                for (int i = 0; i < read.length; i++) {
+                    page.add(new AbstractMap.SimpleImmutableEntry<>(keys[next + i], read[i]));
+                }
+                next = to;
+            }
+        };
+    }
+
+    /**
+     * @return all key-value pairs of the snapshot, in key order
+     */
+    public Iterator<Map.Entry<byte[], byte[]>> iterator() {
+        return scan(null, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes the data files of the snapshot into the target directory, which then opens as a store with the
+     * key-value pairs of the snapshot (less the values that have expired since). The sealed data files and their hint
+     * files are hard-linked, or copied if the target is on another file system, and the active data file is copied
+     * up to its length when the snapshot was taken.
+     */
+    public void backup(final Path target) throws IOException {
+        checkOpen();
+        Files.createDirectories(target);
+        for (final int fileId : pinned.sealedFileIds) {
+            link(data.dataFile(fileId).toPath(), target.resolve(Bitcask.DATA_FILE_PREFIX + fileId));
+            final Path hint = data.hintFile(fileId).toPath();
+            if (Files.exists(hint)) link(hint, target.resolve(Bitcask.HINT_FILE_PREFIX + fileId));
+        }
+        if (pinned.activeFileId == -1) return;
+        // the active file may have grown since, and its entries are the only ones not in the hint files
+        final byte[] buffer = new byte[64 * 1024];
+        try (final InputStream input = Files.newInputStream(data.dataFile(pinned.activeFileId).toPath());
+             final OutputStream output = Files.newOutputStream(
+                     target.resolve(Bitcask.DATA_FILE_PREFIX + pinned.activeFileId))) {
+            long remaining = pinned.activeFileBytes;
+            while (remaining > 0) {
+                final int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new IOException("data file " + pinned.activeFileId + " is shorter than the snapshot");
+                }
+                output.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    private static void link(final Path source, final Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        } catch (final IOException | UnsupportedOperationException e) {
+            Files.copy(source, target);
+        }
+    }
+
+    /**
+     * Releases the data files, so that those merged since the snapshot was taken are deleted.
+     */
+    @Override
+    public synchronized void close() throws Exception {
+        if (closed) return;
+        closed = true;
+        data.unpin();
+    }
+}
@@ -0,0 +1,33 @@
+package bitcask;
+
+/**
+ * When the group commit writer forces the written entries to disk.
+ */
+public final class SyncPolicy {
+    public enum Mode {
+        NONE,      // leave it to the OS; a put returns once its entry is written to the file
+        BATCH,     // a put returns once the batch holding its entry is forced to disk
+        INTERVAL,  // a put returns once its entry is written, and the file is forced every interval
+    }
+
+    public static final SyncPolicy NONE = new SyncPolicy(Mode.NONE, 0);
+    public static final SyncPolicy BATCH = new SyncPolicy(Mode.BATCH, 0);
+
+    public final Mode mode;
+    public final long intervalMs;
+
+    private SyncPolicy(final Mode mode, final long intervalMs) {
+        this.mode = mode;
+        this.intervalMs = intervalMs;
+    }
+
+    public static SyncPolicy interval(final long intervalMs) {
+        if (intervalMs <= 0) throw new IllegalArgumentException("sync interval must be positive");
+        return new SyncPolicy(Mode.INTERVAL, intervalMs);
+    }
+
+    @Override
+    public String toString() {
+        return mode == Mode.INTERVAL ? mode + "(" + intervalMs + " ms)" : mode.toString();
+    }
+}
@@ -0,0 +1,117 @@
+package bitcask;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches values by their position in the data files, bounded by the bytes of the values. An entry never changes
+ * once written, so the cache needs no invalidation on put or delete: the key moves to a new position, and the
+ * value at the old position is never looked up again and ages out. Only the values of a data file removed by merge
+ * are dropped at once.
+ *
+ * Eviction is CLOCK in each segment: a hit only sets a flag, and the lock of a segment is only taken to add a
+ * value after a miss.
+ */
+public final class ValueCache {
+    private static final int SEGMENTS = 16;
+    private static final int ENTRY_OVERHEAD = 64;  // the node, the map entry and the boxed position
+
+    private static final class Node {
+        private final long position;
+        private volatile byte[] value;  // null once removed
+        private final int charge;
+        private volatile boolean referenced = false;
+
+        private Node(final long position, final byte[] value) {
+            this.position = position;
+            this.value = value;
+            this.charge = value.length + ENTRY_OVERHEAD;
+        }
+    }
+
+    private static final class Segment {
+        private final ArrayDeque<Node> clock = new ArrayDeque<>();  // guarded by this
+        private long bytes = 0;  // guarded by this
+    }
+
+    private final long segmentCapacity;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final ConcurrentHashMap<Long, Node> nodes = new ConcurrentHashMap<>();
+    private final Metrics metrics;
+
+    public ValueCache(final long capacity, final Metrics metrics) {
+        this.segmentCapacity = Math.max(capacity / SEGMENTS, 1);
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment();
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the key of a position, or -1 if the position cannot be cached
+     */
+    private static long position(final int fileId, final long valuePos) {
+        return valuePos >>> 32 == 0 ? (long) fileId << 32 | valuePos : -1;
+    }
+
+    private Segment segment(final long position) {
+        return segments[(int) ((position * 0x9E3779B97F4A7C15L) >>> 60)];
+    }
+
+    /**
+     * @return a copy of the cached value, or null on a miss
+     */
+    public byte[] get(final int fileId, final long valuePos) {
+        final Node node = nodes.get(position(fileId, valuePos));
+        final byte[] value = node == null ? null : node.value;
+        if (value == null) {
+            metrics.cacheMisses.increment();
+            return null;
+        }
+        node.referenced = true;
+        metrics.cacheHits.increment();
+        return value.clone();
+    }
+
+    public void put(final int fileId, final long valuePos, final byte[] value) {
+        final long position = position(fileId, valuePos);
+        if (position == -1 || value.length + ENTRY_OVERHEAD > segmentCapacity) return;
+        final Node node = new Node(position, value.clone());
+        final Segment segment = segment(position);
+        synchronized (segment) {
+            if (nodes.putIfAbsent(position, node) != null) return;
+            while (segment.bytes + node.charge > segmentCapacity) {
+                final Node victim = segment.clock.poll();
+                if (victim.value == null) continue;  // removed with its data file
+                if (victim.referenced) {
+                    victim.referenced = false;
+                    segment.clock.add(victim);
+                } else {
+                    evict(segment, victim);
+                }
+            }
+            segment.clock.add(node);
+            segment.bytes += node.charge;
+            metrics.cacheBytes.add(node.charge);
+        }
+    }
+
+    // called with the lock of the segment
+    private void evict(final Segment segment, final Node node) {
+        nodes.remove(node.position, node);
+        node.value = null;
+        segment.bytes -= node.charge;
+        metrics.cacheBytes.add(-node.charge);
+    }
+
+    /**
+     * Drops the values of a data file, e.g., once merge has removed it.
+     */
+    public void removeFile(final int fileId) {
+        for (final Node node : nodes.values()) {
+            if (node.position >>> 32 != fileId) continue;
+            final Segment segment = segment(node.position);
+            synchronized (segment) {
+                if (node.value != null) evict(segment, node);
+            }
+        }
+    }
+}
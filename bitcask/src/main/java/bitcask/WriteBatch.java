@@ -0,0 +1,42 @@
+package bitcask;
+
+import java.util.ArrayList;
+
+/**
+ * Puts and deletes that are written together as one atomic batch, see {@link KeyDir#write(WriteBatch)}: after
+ * a crash, recovery finds all of them or none. They apply in order, so a key that appears more than once takes its
+ * last value. A batch is not thread safe, and may be written more than once.
+ */
+public final class WriteBatch {
+    final ArrayList<byte[]> keys = new ArrayList<>();
+    final ArrayList<byte[]> values = new ArrayList<>();
+    final ArrayList<Long> ttls = new ArrayList<>();
+
+    public WriteBatch put(final byte[] key, final byte[] value) {
+        return put(key, value, 0);
+    }
+
+    /**
+     * Puts the key-value pair, or deletes the key if the value is null.
+     *
+     * @param ttlMillis the time to live of the value, 0 if it never expires
+     */
+    public WriteBatch put(final byte[] key, final byte[] value, final long ttlMillis) {
+        if (key.length > DataFileEntry.MAX_KEY_SIZE) {
+            throw new IllegalArgumentException("key is longer than " + DataFileEntry.MAX_KEY_SIZE + " bytes");
+        }
+        if (ttlMillis < 0) throw new IllegalArgumentException("time to live must not be negative");
+        keys.add(key);
+        values.add(value);
+        ttls.add(ttlMillis);
+        return this;
+    }
+
+    public WriteBatch delete(final byte[] key) {
+        return put(key, null, 0);
+    }
+
+    public int size() {
+        return keys.size();
+    }
+}
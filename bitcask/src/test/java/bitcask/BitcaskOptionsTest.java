@@ -0,0 +1,85 @@
+package bitcask;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BitcaskOptionsTest {
+    private static int dataFiles(final Path path) {
+        int count = 0;
+        for (final File file : Objects.requireNonNull(path.toFile().listFiles())) {
+            if (file.getName().startsWith(Bitcask.DATA_FILE_PREFIX)) count++;
+        }
+        return count;
+    }
+
+    @Test
+    void testInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> BitcaskOptions.builder().dataFileSize(0));
+        assertThrows(IllegalArgumentException.class, () -> BitcaskOptions.builder().readThreads(0));
+        assertThrows(IllegalArgumentException.class, () -> BitcaskOptions.builder().cacheBytes(-1));
+        assertThrows(IllegalArgumentException.class, () -> BitcaskOptions.builder().scanBufferSize(1024));
+        assertThrows(IllegalArgumentException.class, () -> BitcaskOptions.builder().syncPolicy(null));
+        final BitcaskOptions options = BitcaskOptions.builder().dataFileSize(1 << 20).cacheBytes(1 << 20).build();
+        assertEquals(options.toString(), options.toBuilder().build().toString());
+    }
+
+    @RepeatedTest(5)
+    void testDataFileSize(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final long dataFileSize = random.nextInt(1 << 20) + (1 << 16);
+        final BitcaskOptions options = BitcaskOptions.builder().dataFileSize(dataFileSize)
+                .writeBatchSize(random.nextInt(16) + 1).scanBufferSize(random.nextInt(1 << 20) + (1 << 17)).build();
+        final Map<Integer, byte[]> map = new HashMap<>();
+        long bytes = 0;
+        try (final Bitcask bitcask = new Bitcask(path, options)) {
+            for (int n = random.nextInt(1000) + 1000; n > 0; n--) {
+                final int key = random.nextInt();
+                final byte[] value = BitcaskTest.genEntry(random).value;
+                bitcask.put(BitcaskTest.key(key), value);
+                map.put(key, value);
+                bytes += DataFileEntry.HEADER_SIZE + 4 + value.length;
+            }
+        }
+        // every file but the last is sealed as soon as it exceeds the size
+        for (final File file : Objects.requireNonNull(path.toFile().listFiles())) {
+            if (!file.getName().startsWith(Bitcask.DATA_FILE_PREFIX)) continue;
+            assertTrue(file.length() <= dataFileSize + DataFileEntry.HEADER_SIZE + 4 + 4096);
+        }
+        assertTrue(dataFiles(path) >= bytes / (dataFileSize + DataFileEntry.HEADER_SIZE + 4 + 4096));
+        try (final Bitcask bitcask = new Bitcask(path, options)) {
+            for (final Map.Entry<Integer, byte[]> entry : map.entrySet()) {
+                assertArrayEquals(entry.getValue(), bitcask.get(BitcaskTest.key(entry.getKey())));
+            }
+        }
+    }
+
+    @RepeatedTest(5)
+    void testMergeTrigger(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final BitcaskOptions options = BitcaskOptions.builder().dataFileSize(1 << 16)
+                .mergeTriggerFiles(4).mergeCheckIntervalMs(10).mergeBytesPerSecond(1 << 30).build();
+        final int[] keys = new int[10];
+        for (int i = 0; i < keys.length; i++) keys[i] = random.nextInt();
+        try (final Bitcask bitcask = new Bitcask(path, options)) {
+            // about 8 files of overwrites of few keys, merged whenever 4 files are sealed
+            for (int n = 0; n < 1000; n++) {
+                bitcask.put(BitcaskTest.key(keys[random.nextInt(keys.length)]), BitcaskTest.genBytes(random, 1024));
+            }
+            final long deadline = System.currentTimeMillis() + 10_000;
+            // fewer sealed files than the trigger, and the active one
+            while (dataFiles(path) > 4 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertTrue(dataFiles(path) <= 4);
+        }
+    }
+}
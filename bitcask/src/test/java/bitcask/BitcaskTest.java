@@ -5,6 +5,7 @@ import org.junit.jupiter.api.io.TempDir;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Random;
@@ -15,13 +16,20 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 public class BitcaskTest {
     private static final Logger LOG = LoggerFactory.getLogger(BitcaskTest.class);
 
-    private static final String SALTCHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890";
+    public static byte[] key(final int key) {
+        return ByteBuffer.allocate(4).putInt(key).array();
+    }
+
+    public static byte[] genBytes(final Random random, final int maxSize) {
+        final byte[] bytes = new byte[random.nextInt(maxSize + 1)];
+        random.nextBytes(bytes);
+        return bytes;
+    }
 
     public static DataFileEntry genEntry(final Random random) {
-        final StringBuilder salt = new StringBuilder();
-        final int len = random.nextInt(4097);
-        for (int j = 0; j < len; j++) salt.append(SALTCHARS.charAt(random.nextInt(SALTCHARS.length())));
-        return new DataFileEntry(System.currentTimeMillis(), random.nextInt(), salt.toString());
+        final long timestamp = System.currentTimeMillis();
+        final long expiresAt = random.nextInt(4) == 0 ? timestamp + random.nextInt(3_600_000) + 1 : 0;
+        return new DataFileEntry(timestamp, expiresAt, genBytes(random, 32), genBytes(random, 4096));
     }
 
     public static DataFileEntry[] genEntries() {
@@ -51,7 +59,7 @@ public class BitcaskTest {
                         final ArrayList<DataFileEntry> entries = new ArrayList<>();
                         for (int j = 0; j < 1000; j++) {
                             if (!entries.isEmpty() && random.nextBoolean()) {
-                                final int key = entries.get(random.nextInt(entries.size())).key;
+                                final byte[] key = entries.get(random.nextInt(entries.size())).key;
                                 if (random.nextBoolean()) {
                                     client.get(key);
                                 } else {
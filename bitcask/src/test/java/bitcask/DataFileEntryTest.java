@@ -9,27 +9,28 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class DataFileEntryTest {
     private static final Logger LOG = LoggerFactory.getLogger(DataFileEntryTest.class);
 
     @RepeatedTest(5)
-    void fileTest(@TempDir Path tempDir) throws IOException {
+    void fileTest(@TempDir Path tempDir) throws Exception {
         final File file = tempDir.resolve(Bitcask.DATA_FILE_PREFIX + 0).toFile();
         assertTrue(file.createNewFile());
         final DataFileEntry[] entries = BitcaskTest.genEntries();
         try (final FileOutputStream output = new FileOutputStream(file)) {
+            output.write(DataFileEntry.FILE_HEADER);
             for (final DataFileEntry entry : entries) {
                 output.write(entry.data);
             }
         }
         final ArrayList<DataFileEntry> list = new ArrayList<>();
         try (final FileInputStream input = new FileInputStream(file)) {
+            DataFileEntry.readFileHeader(input);
             while (true) {
                 try {
                     final DataFileEntry entry = new DataFileEntry(input);
@@ -39,5 +40,12 @@ public class DataFileEntryTest {
                 }
             }
         }
+        assertEquals(entries.length, list.size());
+        for (int i = 0; i < entries.length; i++) {
+            assertEquals(entries[i].timestamp, list.get(i).timestamp);
+            assertEquals(entries[i].expiresAt, list.get(i).expiresAt);
+            assertArrayEquals(entries[i].key, list.get(i).key);
+            assertArrayEquals(entries[i].value, list.get(i).value);
+        }
     }
 }
@@ -0,0 +1,64 @@
+package bitcask;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DataFileScannerTest {
+    private static final Logger LOG = LoggerFactory.getLogger(DataFileScannerTest.class);
+
+    @RepeatedTest(5)
+    void scanTest(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final File file = tempDir.resolve(Bitcask.DATA_FILE_PREFIX + 0).toFile();
+        // some values larger than the scan buffer, and some deletes
+        final ArrayList<DataFileEntry> entries = new ArrayList<>();
+        for (int n = random.nextInt(100) + 100; n > 0; n--) {
+            final byte[] key = BitcaskTest.genBytes(random, 64);
+            final int kind = random.nextInt(20);
+            final byte[] value = kind == 0 ? null : kind == 1 ?
+                    BitcaskTest.genBytes(random, 3 * DataFileScanner.BUFFER_SIZE) : BitcaskTest.genBytes(random, 4096);
+            entries.add(new DataFileEntry(System.currentTimeMillis(), key, value));
+        }
+        long length = DataFileEntry.FILE_HEADER.length;
+        try (final FileOutputStream output = new FileOutputStream(file)) {
+            output.write(DataFileEntry.FILE_HEADER);
+            for (final DataFileEntry entry : entries) {
+                output.write(entry.data);
+                length += entry.data.length;
+            }
+            // a torn tail
+            output.write(entries.get(0).data, 0, random.nextInt(entries.get(0).data.length));
+        }
+        final int[] pos = {0};
+        try (final RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            assertEquals(length, new DataFileScanner().scan(file, 0, (key, valueSize, timestamp, expiresAt, fileId, valuePos) -> {
+                final DataFileEntry expected = entries.get(pos[0]++);
+                assertArrayEquals(expected.key, key);
+                assertEquals(expected.valueSize, valueSize);
+                assertEquals(expected.timestamp, timestamp);
+                if (valueSize == -1) return;
+                final byte[] value = new byte[valueSize];
+                try {
+                    input.seek(valuePos);
+                    input.readFully(value);
+                } catch (final Exception e) {
+                    fail(e);
+                }
+                assertArrayEquals(expected.value, value);
+            }));
+        }
+        assertEquals(entries.size(), pos[0]);
+    }
+}
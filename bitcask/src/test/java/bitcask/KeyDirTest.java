@@ -5,10 +5,13 @@ import org.junit.jupiter.api.io.TempDir;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -20,7 +23,7 @@ public class KeyDirTest {
         final Random random = new Random();
         random.setSeed(System.currentTimeMillis());
         final Path path = tempDir.resolve("" + random.nextInt(10));
-        final Map<Integer, String> map = new HashMap<>();
+        final Map<Integer, byte[]> map = new HashMap<>();
         final ArrayList<Integer> keys = new ArrayList<>();
         keys.add(random.nextInt());
         try (final KeyDir keyDir = new KeyDir(path)) {
@@ -47,12 +50,119 @@ public class KeyDirTest {
                     }
                 } else {
                     // read
-                    assertEquals(map.get(key), keyDir.get(key));
+                    assertArrayEquals(map.get(key), keyDir.get(BitcaskTest.key(key)));
                 }
             }
         }
     }
 
+    @RepeatedTest(5)
+    void testRecovery(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final Map<Integer, byte[]> map = new HashMap<>();
+        // few keys over many files, so that values and tombstones of a key are spread over the files
+        final int[] keys = new int[random.nextInt(50) + 50];
+        for (int i = 0; i < keys.length; i++) keys[i] = random.nextInt();
+        try (final KeyDir keyDir = new KeyDir(path)) {
+            for (int n = random.nextInt(1000) + 2000; n > 0; n--) {
+                final int key = keys[random.nextInt(keys.length)];
+                final byte[] value = random.nextInt(4) == 0 ? null : BitcaskTest.genEntry(random).value;
+                keyDir.put(BitcaskTest.key(key), value);
+                if (value == null) map.remove(key);
+                else map.put(key, value);
+            }
+        }
+        final KeyIndex.Type type = KeyIndex.Type.values()[random.nextInt(KeyIndex.Type.values().length)];
+        try (final KeyDir keyDir = new KeyDir(path, BitcaskOptions.builder().index(type).build())) {
+            assertEquals(map.size(), keyDir.size());
+            for (final int key : keys) assertArrayEquals(map.get(key), keyDir.get(BitcaskTest.key(key)));
+        }
+    }
+
+    @RepeatedTest(5)
+    void testMulti(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final Map<Integer, byte[]> map = new HashMap<>();
+        final int[] keys = new int[random.nextInt(500) + 500];
+        for (int i = 0; i < keys.length; i++) keys[i] = random.nextInt();
+        try (final KeyDir keyDir = new KeyDir(path)) {
+            for (int n = random.nextInt(100) + 100; n > 0; n--) {
+                // duplicate keys in a batch are allowed, the last one wins
+                final int[] batch = new int[random.nextInt(100) + 1];
+                final byte[][] batchKeys = new byte[batch.length][];
+                for (int i = 0; i < batch.length; i++) {
+                    batch[i] = keys[random.nextInt(keys.length)];
+                    batchKeys[i] = BitcaskTest.key(batch[i]);
+                }
+                if (random.nextBoolean()) {
+                    final byte[][] values = new byte[batch.length][];
+                    for (int i = 0; i < batch.length; i++) {
+                        values[i] = random.nextInt(10) == 0 ? null : BitcaskTest.genBytes(random, 1024);
+                        if (values[i] == null) map.remove(batch[i]);
+                        else map.put(batch[i], values[i]);
+                    }
+                    keyDir.multiPut(batchKeys, values);
+                } else {
+                    final byte[][] values = keyDir.multiGet(batchKeys);
+                    for (int i = 0; i < batch.length; i++) assertArrayEquals(map.get(batch[i]), values[i]);
+                }
+            }
+        }
+        try (final KeyDir keyDir = new KeyDir(path)) {
+            final byte[][] batchKeys = new byte[keys.length][];
+            for (int i = 0; i < keys.length; i++) batchKeys[i] = BitcaskTest.key(keys[i]);
+            final byte[][] values = keyDir.multiGet(batchKeys);
+            for (int i = 0; i < keys.length; i++) assertArrayEquals(map.get(keys[i]), values[i]);
+        }
+    }
+
+    @RepeatedTest(5)
+    void testConcurrentMulti(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final byte[][] keys = new byte[random.nextInt(100) + 100][];
+        for (int i = 0; i < keys.length; i++) keys[i] = BitcaskTest.key(random.nextInt());
+        final AtomicBoolean flag = new AtomicBoolean(true);
+        final byte[][] before;
+        try (final KeyDir keyDir = new KeyDir(path)) {
+            // overlapping batches and single puts race on the same keys
+            final Thread[] threads = new Thread[8];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(() -> {
+                    try {
+                        for (int n = random.nextInt(100) + 100; n > 0; n--) {
+                            final byte[][] batchKeys = new byte[random.nextInt(20) + 1][];
+                            final byte[][] values = new byte[batchKeys.length][];
+                            for (int j = 0; j < batchKeys.length; j++) {
+                                batchKeys[j] = keys[random.nextInt(keys.length)];
+                                values[j] = random.nextInt(10) == 0 ? null : BitcaskTest.genBytes(random, 256);
+                            }
+                            if (random.nextBoolean()) keyDir.multiPut(batchKeys, values);
+                            else keyDir.put(batchKeys[0], values[0]);
+                        }
+                    } catch (final Throwable t) {
+                        flag.set(false);
+                        throw t;
+                    }
+                });
+            }
+            for (final Thread thread : threads) thread.start();
+            for (final Thread thread : threads) thread.join();
+            before = keyDir.multiGet(keys);
+        }
+        assertTrue(flag.get());
+        // the index agrees with the order of the data files
+        try (final KeyDir keyDir = new KeyDir(path)) {
+            final byte[][] after = keyDir.multiGet(keys);
+            for (int i = 0; i < keys.length; i++) assertArrayEquals(before[i], after[i]);
+        }
+    }
+
     private static int nextInt(final Random random, final int bits, final int remainder) {
         return ((random.nextInt()) & ~((1<<bits)-1)) | remainder;
     }
@@ -62,7 +172,7 @@ public class KeyDirTest {
         final Random random = new Random();
         random.setSeed(System.currentTimeMillis());
         final Path path = tempDir.resolve("" + random.nextInt(10));
-        final ConcurrentHashMap<Integer, String> map = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<Integer, byte[]> map = new ConcurrentHashMap<>();
         final AtomicBoolean flag = new AtomicBoolean(true);
         try (final KeyDir keyDir = new KeyDir(path)) {
             final int bits = 4;
@@ -97,7 +207,7 @@ public class KeyDirTest {
                             } else {
                                 // read
                                 try {
-                                    assertEquals(map.get(key), keyDir.get(key));
+                                    assertArrayEquals(map.get(key), keyDir.get(BitcaskTest.key(key)));
                                 } catch (final Exception e) {
                                     throw new RuntimeException(e);
                                 }
@@ -114,4 +224,246 @@ public class KeyDirTest {
         }
         assertTrue(flag.get());
     }
+
+    @RepeatedTest(5)
+    void testAsync(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final Map<Integer, byte[]> map = new HashMap<>();
+        final int[] keys = new int[random.nextInt(100) + 100];
+        for (int i = 0; i < keys.length; i++) keys[i] = random.nextInt();
+        try (final KeyDir keyDir = new KeyDir(path); final Merger merger = new Merger(keyDir)) {
+            for (int round = 0; round < 10; round++) {
+                // many puts of the same keys in flight at once apply in the order they were made
+                final ArrayList<CompletableFuture<Void>> puts = new ArrayList<>();
+                for (int n = random.nextInt(500) + 500; n > 0; n--) {
+                    final int key = keys[random.nextInt(keys.length)];
+                    final byte[] value = random.nextInt(4) == 0 ? null : BitcaskTest.genBytes(random, 1024);
+                    puts.add(keyDir.putAsync(BitcaskTest.key(key), value));
+                    if (value == null) map.remove(key);
+                    else map.put(key, value);
+                }
+                CompletableFuture.allOf(puts.toArray(new CompletableFuture[0])).get();
+                // and all gets in flight at once, racing a merge that moves the values
+                final Thread merge = new Thread(() -> {
+                    try {
+                        merger.merge();
+                    } catch (final Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                merge.start();
+                final ArrayList<CompletableFuture<byte[]>> gets = new ArrayList<>();
+                for (final int key : keys) gets.add(keyDir.getAsync(BitcaskTest.key(key)));
+                for (int i = 0; i < keys.length; i++) assertArrayEquals(map.get(keys[i]), gets.get(i).get());
+                merge.join();
+            }
+            assertEquals(map.size(), keyDir.size());
+            assertEquals(10 * keys.length, keyDir.metrics().getGets());
+        }
+    }
+
+    @RepeatedTest(5)
+    void testExpiry(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final KeyIndex.Type type = KeyIndex.Type.values()[random.nextInt(KeyIndex.Type.values().length)];
+        final BitcaskOptions options = BitcaskOptions.builder().index(type).build();
+        final Map<Integer, byte[]> lasting = new HashMap<>();
+        final Set<Integer> expiring = new HashSet<>();
+        final int[] keys = new int[random.nextInt(500) + 500];
+        for (int i = 0; i < keys.length; i++) keys[i] = random.nextInt();
+        try (final KeyDir keyDir = new KeyDir(path, options)) {
+            for (final int key : keys) {
+                final byte[] value = BitcaskTest.genBytes(random, 1024);
+                switch (random.nextInt(3)) {
+                    case 0:
+                        keyDir.put(BitcaskTest.key(key), value);
+                        lasting.put(key, value);
+                        expiring.remove(key);
+                        break;
+                    case 1:
+                        keyDir.put(BitcaskTest.key(key), value, 3_600_000);
+                        lasting.put(key, value);
+                        expiring.remove(key);
+                        break;
+                    default:
+                        // an older value without a time to live must not come back once the new one expires
+                        if (random.nextBoolean()) keyDir.put(BitcaskTest.key(key), BitcaskTest.genBytes(random, 16));
+                        keyDir.put(BitcaskTest.key(key), value, 500);
+                        assertTrue(keyDir.containsKey(BitcaskTest.key(key)));
+                        lasting.remove(key);
+                        expiring.add(key);
+                }
+            }
+            Thread.sleep(600);
+            for (final int key : keys) {
+                if (random.nextBoolean()) assertArrayEquals(lasting.get(key), keyDir.get(BitcaskTest.key(key)));
+                else assertArrayEquals(lasting.get(key), keyDir.getAsync(BitcaskTest.key(key)).get());
+            }
+            final byte[][] batchKeys = new byte[keys.length][];
+            for (int i = 0; i < keys.length; i++) batchKeys[i] = BitcaskTest.key(keys[i]);
+            final byte[][] values = keyDir.multiGet(batchKeys);
+            for (int i = 0; i < keys.length; i++) assertArrayEquals(lasting.get(keys[i]), values[i]);
+        }
+        // recovery drops the expired entries, and the sweep those that expire afterwards
+        try (final KeyDir keyDir = new KeyDir(path, options)) {
+            assertEquals(lasting.size(), keyDir.size());
+            for (final int key : keys) assertArrayEquals(lasting.get(key), keyDir.get(BitcaskTest.key(key)));
+            for (final int key : expiring) keyDir.put(BitcaskTest.key(key), BitcaskTest.genBytes(random, 16), 100);
+            assertEquals(lasting.size() + expiring.size(), keyDir.size());
+            Thread.sleep(200);
+            keyDir.sweep();
+            assertEquals(lasting.size(), keyDir.size());
+            assertEquals(expiring.size(), keyDir.metrics().getExpirations());
+            // and merge reclaims them
+            try (final Merger merger = new Merger(keyDir)) {
+                merger.merge();
+            }
+            long live = 0;
+            for (final long bytes : keyDir.metrics().getLiveBytes().values()) live += bytes;
+            long expected = 0;
+            for (final Map.Entry<Integer, byte[]> entry : lasting.entrySet()) {
+                expected += Metrics.entrySize(BitcaskTest.key(entry.getKey()), entry.getValue().length);
+            }
+            assertEquals(expected, live);
+            for (final int key : keys) assertArrayEquals(lasting.get(key), keyDir.get(BitcaskTest.key(key)));
+        }
+    }
+
+    @RepeatedTest(5)
+    void testScan(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final BitcaskOptions options = BitcaskOptions.builder().index(KeyIndex.Type.ORDERED).build();
+        final TreeMap<Key, byte[]> map = new TreeMap<>();
+        // short keys, so that many share a prefix, over more keys than a page
+        final Key[] keys = new Key[random.nextInt(1000) + 1000];
+        for (int i = 0; i < keys.length; i++) keys[i] = new Key(BitcaskTest.genBytes(random, random.nextInt(3) + 1));
+        try (final KeyDir keyDir = new KeyDir(path, options); final Merger merger = new Merger(keyDir)) {
+            for (int n = random.nextInt(2000) + 2000; n > 0; n--) {
+                final Key key = keys[random.nextInt(keys.length)];
+                final byte[] value = random.nextInt(4) == 0 ? null : BitcaskTest.genBytes(random, 1024);
+                keyDir.put(key.bytes, value);
+                if (value == null) map.remove(key);
+                else map.put(key, value);
+                if (random.nextInt(1000) == 0) merger.merge();
+            }
+            for (int n = 0; n < 20; n++) {
+                final byte[] from = random.nextInt(4) == 0 ? null : keys[random.nextInt(keys.length)].bytes;
+                final byte[] to = random.nextInt(4) == 0 ? null : keys[random.nextInt(keys.length)].bytes;
+                final int limit = random.nextBoolean() ? Integer.MAX_VALUE : random.nextInt(1000);
+                NavigableMap<Key, byte[]> range = map;
+                if (from != null && to != null && Key.compare(from, to) >= 0) range = Collections.emptyNavigableMap();
+                else if (from != null) range = range.tailMap(new Key(from), true);
+                if (to != null && !range.isEmpty()) range = range.headMap(new Key(to), false);
+                assertScan(range, limit, keyDir.scan(from, to, limit));
+            }
+            final byte[] prefix = {(byte) random.nextInt(0xFF)};
+            assertScan(map.subMap(new Key(prefix), true, new Key(Key.prefixEnd(prefix)), false), Integer.MAX_VALUE,
+                    keyDir.scan(prefix, Key.prefixEnd(prefix), Integer.MAX_VALUE));
+        }
+        try (final KeyDir keyDir = new KeyDir(path, options)) {
+            assertScan(map, Integer.MAX_VALUE, keyDir.scan(null, null, Integer.MAX_VALUE));
+        }
+        assertArrayEquals(new byte[]{1, 1}, Key.prefixEnd(new byte[]{1, 0, (byte) 0xFF}));
+        assertNull(Key.prefixEnd(new byte[]{(byte) 0xFF, (byte) 0xFF}));
+        try (final KeyDir keyDir = new KeyDir(path)) {
+            assertThrows(UnsupportedOperationException.class, () -> keyDir.scan(null, null, 10).hasNext());
+        }
+    }
+
+    private static byte[] decimal(final long value) {
+        return Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @RepeatedTest(5)
+    void testConditional(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final KeyIndex.Type type = KeyIndex.Type.values()[random.nextInt(KeyIndex.Type.values().length)];
+        final BitcaskOptions options = BitcaskOptions.builder().index(type).dataFileSize(1 << 16).build();
+        final byte[] counter = BitcaskTest.key(-1);
+        final byte[] swapped = BitcaskTest.key(-2);
+        final byte[] claimed = BitcaskTest.key(-3);
+        final int rounds = random.nextInt(200) + 100;
+        final Thread[] threads = new Thread[8];
+        final AtomicInteger winners = new AtomicInteger();
+        final AtomicBoolean flag = new AtomicBoolean(true);
+        try (final KeyDir keyDir = new KeyDir(path, options); final Merger merger = new Merger(keyDir)) {
+            keyDir.put(swapped, decimal(0));
+            for (int t = 0; t < threads.length; t++) {
+                final byte[] own = BitcaskTest.key(t);
+                threads[t] = new Thread(() -> {
+                    try {
+                        if (keyDir.putIfAbsent(claimed, own)) winners.incrementAndGet();
+                        for (int n = 0; n < rounds; n++) {
+                            keyDir.increment(counter, 1);
+                            // a read-modify-write that retries until no other write comes between
+                            while (true) {
+                                final byte[] read = keyDir.get(swapped);
+                                final long value = Long.parseLong(new String(read, StandardCharsets.US_ASCII));
+                                if (keyDir.compareAndSet(swapped, read, decimal(value + 1))) break;
+                            }
+                            // the check sees an asynchronous put that is not complete yet
+                            keyDir.putAsync(own, decimal(n));
+                            assertTrue(keyDir.compareAndSet(own, decimal(n), decimal(-n)));
+                        }
+                    } catch (final Throwable e) {
+                        flag.set(false);
+                        throw new RuntimeException(e);
+                    }
+                });
+            }
+            for (final Thread thread : threads) thread.start();
+            for (final Thread thread : threads) thread.join();
+            assertTrue(flag.get());
+            merger.merge();
+            assertEquals(1, winners.get());
+            assertArrayEquals(decimal((long) threads.length * rounds), keyDir.get(counter));
+            assertArrayEquals(decimal((long) threads.length * rounds), keyDir.get(swapped));
+            // null expects a missing key, and puts null to delete; only the writes count
+            final long puts = keyDir.metrics().getPuts();
+            final long deletes = keyDir.metrics().getDeletes();
+            assertFalse(keyDir.compareAndSet(claimed, null, decimal(1)));
+            assertTrue(keyDir.compareAndSet(counter, decimal((long) threads.length * rounds), null));
+            assertTrue(keyDir.compareAndSet(counter, null, decimal(0)));
+            assertFalse(keyDir.putIfAbsent(counter, decimal(1)));
+            assertFalse(keyDir.compareAndSet(claimed, decimal(1), null));
+            assertEquals(puts + 1, keyDir.metrics().getPuts());
+            assertEquals(deletes + 1, keyDir.metrics().getDeletes());
+            assertEquals(-5, keyDir.increment(counter, -5));
+            keyDir.put(claimed, new byte[]{'x'});
+            assertThrows(IllegalArgumentException.class, () -> keyDir.increment(claimed, 1));
+            keyDir.put(swapped, decimal(Long.MAX_VALUE));
+            assertThrows(ArithmeticException.class, () -> keyDir.increment(swapped, 1));
+            // an increment keeps the time to live
+            keyDir.put(swapped, decimal(1), 100);
+            assertEquals(2, keyDir.increment(swapped, 1));
+            Thread.sleep(150);
+            assertNull(keyDir.get(swapped));
+            assertTrue(keyDir.putIfAbsent(swapped, decimal(7)));
+        }
+        try (final KeyDir keyDir = new KeyDir(path, options)) {
+            assertArrayEquals(decimal(-5), keyDir.get(counter));
+            assertArrayEquals(decimal(7), keyDir.get(swapped));
+        }
+    }
+
+    private static void assertScan(final NavigableMap<Key, byte[]> expected, final int limit,
+                                   final Iterator<Map.Entry<byte[], byte[]>> scan) {
+        int count = 0;
+        for (final Map.Entry<Key, byte[]> entry : expected.entrySet()) {
+            if (count++ == limit) break;
+            assertTrue(scan.hasNext());
+            final Map.Entry<byte[], byte[]> scanned = scan.next();
+            assertArrayEquals(entry.getKey().bytes, scanned.getKey());
+            assertArrayEquals(entry.getValue(), scanned.getValue());
+        }
+        assertFalse(scan.hasNext());
+    }
 }
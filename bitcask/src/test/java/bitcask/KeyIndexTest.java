@@ -0,0 +1,133 @@
+package bitcask;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyIndexTest {
+    private static final Logger LOG = LoggerFactory.getLogger(KeyIndexTest.class);
+
+    private static KeyDir.Value genValue(final Random random) {
+        return new KeyDir.Value(random.nextInt(100), random.nextInt(4097),
+                random.nextInt(Bitcask.DATA_FILE_SIZE_LIMIT), System.currentTimeMillis());
+    }
+
+    // mostly short keys, with some long ones to grow the key arena of the packed index
+    private static Key genKey(final Random random) {
+        return new Key(BitcaskTest.genBytes(random, random.nextInt(100) == 0 ? 4096 : 16));
+    }
+
+    @RepeatedTest(5)
+    void testSequentialHash() {
+        testSequential(KeyIndex.Type.HASH);
+    }
+
+    @RepeatedTest(5)
+    void testSequentialPacked() {
+        testSequential(KeyIndex.Type.PACKED);
+    }
+
+    @RepeatedTest(5)
+    void testSequentialOrdered() {
+        testSequential(KeyIndex.Type.ORDERED);
+    }
+
+    private static void testSequential(final KeyIndex.Type type) {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final KeyIndex index = KeyIndex.create(type);
+        final Map<Key, KeyDir.Value> map = new HashMap<>();
+        final ArrayList<Key> keys = new ArrayList<>();
+        for (int n = random.nextInt(100000) + 100000; n > 0; n--) {
+            final Key key = keys.isEmpty() || random.nextBoolean() ? genKey(random) : keys.get(random.nextInt(keys.size()));
+            keys.add(key);
+            switch (random.nextInt(5)) {
+                case 0:
+                    index.remove(key.bytes);
+                    map.remove(key);
+                    break;
+                case 1:
+                    final KeyDir.Value value = genValue(random);
+                    index.put(key.bytes, value);
+                    map.put(key, value);
+                    break;
+                case 2:
+                    final KeyDir.Value computed = random.nextInt(4) == 0 ? null : genValue(random);
+                    assertEquals(computed, index.compute(key.bytes, (k, v) -> {
+                        assertEquals(map.get(new Key(k)), v);
+                        return computed;
+                    }));
+                    if (computed == null) map.remove(key);
+                    else map.put(key, computed);
+                    break;
+                case 3:
+                    final KeyDir.Value expected = random.nextBoolean() ? map.get(key) : genValue(random);
+                    final KeyDir.Value updated = genValue(random);
+                    final boolean replaced = expected != null && expected.equals(map.get(key));
+                    assertEquals(replaced, expected != null && index.replace(key.bytes, expected, updated));
+                    if (replaced) map.put(key, updated);
+                    break;
+                default:
+                    assertEquals(map.get(key), index.get(key.bytes));
+            }
+        }
+        assertEquals(map.size(), index.size());
+        for (final Map.Entry<Key, KeyDir.Value> entry : map.entrySet()) {
+            assertEquals(entry.getValue(), index.get(entry.getKey().bytes));
+        }
+    }
+
+    @RepeatedTest(5)
+    void testConcurrentPacked() throws Exception {
+        testConcurrent(KeyIndex.Type.PACKED);
+    }
+
+    @RepeatedTest(5)
+    void testConcurrentOrdered() throws Exception {
+        testConcurrent(KeyIndex.Type.ORDERED);
+    }
+
+    private static void testConcurrent(final KeyIndex.Type type) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final KeyIndex index = KeyIndex.create(type);
+        final byte[][] keys = new byte[random.nextInt(1000) + 1000][];
+        for (int i = 0; i < keys.length; i++) keys[i] = BitcaskTest.key(random.nextInt());
+        final Thread[] threads = new Thread[16];
+        final AtomicBoolean flag = new AtomicBoolean(true);
+        final AtomicLong increments = new AtomicLong();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    // every key counts its increments in the value position
+                    for (int n = random.nextInt(10000) + 10000; n > 0; n--) {
+                        final byte[] key = keys[random.nextInt(keys.length)];
+                        index.compute(key, (k, v) -> new KeyDir.Value(0, 0, v == null ? 1 : v.valuePos + 1, 0));
+                        increments.incrementAndGet();
+                        assertNotNull(index.get(key));
+                    }
+                } catch (final Throwable t) {
+                    flag.set(false);
+                    throw t;
+                }
+            });
+        }
+        for (final Thread thread : threads) thread.start();
+        for (final Thread thread : threads) thread.join();
+        assertTrue(flag.get());
+        long total = 0;
+        final Set<Key> distinct = new HashSet<>();
+        for (final byte[] key : keys) distinct.add(new Key(key));
+        for (final Key key : distinct) {
+            total += index.get(key.bytes).valuePos;
+        }
+        assertEquals(increments.get(), total);
+        assertEquals(distinct.size(), index.size());
+    }
+}
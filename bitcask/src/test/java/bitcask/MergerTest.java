@@ -0,0 +1,200 @@
+package bitcask;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MergerTest {
+    private static final Logger LOG = LoggerFactory.getLogger(MergerTest.class);
+
+    private static long diskUsage(final Path path) {
+        long bytes = 0;
+        for (final File file : Objects.requireNonNull(path.toFile().listFiles())) bytes += file.length();
+        return bytes;
+    }
+
+    private static void writeRandomly(final Random random, final KeyDir keyDir, final Map<Integer, byte[]> map,
+                                      final int[] keys, final int n) {
+        for (int i = 0; i < n; i++) {
+            final int key = keys[random.nextInt(keys.length)];
+            if (random.nextInt(10) == 0) {
+                keyDir.put(BitcaskTest.key(key), null);
+                map.remove(key);
+            } else {
+                final byte[] value = BitcaskTest.genEntry(random).value;
+                keyDir.put(BitcaskTest.key(key), value);
+                map.put(key, value);
+            }
+        }
+    }
+
+    @RepeatedTest(5)
+    void testMerge(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final Map<Integer, byte[]> map = new HashMap<>();
+        final int[] keys = new int[random.nextInt(100) + 100];
+        for (int i = 0; i < keys.length; i++) keys[i] = random.nextInt();
+        try (final KeyDir keyDir = new KeyDir(path); final Merger merger = new Merger(keyDir)) {
+            writeRandomly(random, keyDir, map, keys, random.nextInt(1000) + 2000);
+            final long before = diskUsage(path);
+            merger.merge();
+            assertTrue(diskUsage(path) < before);
+            for (final int key : keys) assertArrayEquals(map.get(key), keyDir.get(BitcaskTest.key(key)));
+            writeRandomly(random, keyDir, map, keys, random.nextInt(1000));
+            merger.merge();
+            writeRandomly(random, keyDir, map, keys, random.nextInt(1000));
+        }
+        try (final KeyDir keyDir = new KeyDir(path)) {
+            for (final int key : keys) assertArrayEquals(map.get(key), keyDir.get(BitcaskTest.key(key)));
+        }
+    }
+
+    @RepeatedTest(5)
+    void testShrunkFileSize(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final Map<Integer, byte[]> map = new HashMap<>();
+        final int[] keys = new int[random.nextInt(1000) + 2000];
+        for (int i = 0; i < keys.length; i++) keys[i] = i;
+        try (final KeyDir keyDir = new KeyDir(path, BitcaskOptions.builder().dataFileSize(1 << 20).build())) {
+            for (final int key : keys) {
+                final byte[] value = BitcaskTest.genBytes(random, 1024);
+                keyDir.put(BitcaskTest.key(key), value);
+                map.put(key, value);
+            }
+        }
+        // the live bytes of every input now fill many files, but merge has only one output id per input
+        final BitcaskOptions options = BitcaskOptions.builder().dataFileSize(1 << 16).build();
+        try (final KeyDir keyDir = new KeyDir(path, options); final Merger merger = new Merger(keyDir)) {
+            merger.merge();
+            writeRandomly(random, keyDir, map, keys, 10);
+            for (final int key : keys) assertArrayEquals(map.get(key), keyDir.get(BitcaskTest.key(key)));
+        }
+        try (final KeyDir keyDir = new KeyDir(path, options)) {
+            for (final int key : keys) assertArrayEquals(map.get(key), keyDir.get(BitcaskTest.key(key)));
+        }
+    }
+
+    @RepeatedTest(5)
+    void testCorruptSize(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final Map<Integer, byte[]> map = new HashMap<>();
+        final int[] keys = new int[random.nextInt(1000) + 2000];
+        for (int i = 0; i < keys.length; i++) keys[i] = i;
+        final int fileId;
+        try (final KeyDir keyDir = new KeyDir(path)) {
+            for (final int key : keys) {
+                final byte[] value = BitcaskTest.genBytes(random, 1024);
+                keyDir.put(BitcaskTest.key(key), value);
+                map.put(key, value);
+            }
+            fileId = keyDir.data().dataFiles.firstKey();
+        }
+        // the value size of the first entry of a sealed file runs past the end of the file, as a corrupt one may
+        try (final RandomAccessFile file = new RandomAccessFile(
+                path.resolve(Bitcask.DATA_FILE_PREFIX + fileId).toFile(), "rw")) {
+            file.seek(DataFileEntry.FILE_HEADER.length + 4 + 8 + 8 + 2);
+            file.writeInt(Integer.MAX_VALUE - 1);
+        }
+        try (final KeyDir keyDir = new KeyDir(path); final Merger merger = new Merger(keyDir)) {
+            // the hint file still serves the index, and merge fails rather than drop the rest of the file
+            for (final int key : keys) assertArrayEquals(map.get(key), keyDir.get(BitcaskTest.key(key)));
+            assertThrows(IOException.class, merger::merge);
+            assertTrue(keyDir.data().dataFile(fileId).exists());
+            for (final int key : keys) assertArrayEquals(map.get(key), keyDir.get(BitcaskTest.key(key)));
+        }
+        try (final KeyDir keyDir = new KeyDir(path)) {
+            for (final int key : keys) assertArrayEquals(map.get(key), keyDir.get(BitcaskTest.key(key)));
+        }
+    }
+
+    @RepeatedTest(5)
+    void testUnfinishedMerge(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final Map<Integer, byte[]> map = new HashMap<>();
+        final int[] keys = new int[random.nextInt(1000) + 2000];
+        for (int i = 0; i < keys.length; i++) keys[i] = i;
+        final int fileId;
+        try (final KeyDir keyDir = new KeyDir(path)) {
+            writeRandomly(random, keyDir, map, keys, random.nextInt(1000) + 2000);
+            fileId = keyDir.data().dataFiles.lastKey() + 1;
+        }
+        // a crash mid-merge leaves a torn output, here the first half of an input, next to the inputs
+        final byte[] input = Files.readAllBytes(path.resolve(Bitcask.DATA_FILE_PREFIX + (fileId - 2)));
+        final Path output = path.resolve(Bitcask.MERGE_FILE_PREFIX + fileId);
+        Files.write(output, Arrays.copyOf(input, input.length / 2));
+        try (final KeyDir keyDir = new KeyDir(path); final Merger merger = new Merger(keyDir)) {
+            assertFalse(Files.exists(output));
+            for (final int key : keys) assertArrayEquals(map.get(key), keyDir.get(BitcaskTest.key(key)));
+            merger.merge();
+            writeRandomly(random, keyDir, map, keys, random.nextInt(1000));
+            merger.merge();
+            for (final int key : keys) assertArrayEquals(map.get(key), keyDir.get(BitcaskTest.key(key)));
+        }
+        try (final KeyDir keyDir = new KeyDir(path)) {
+            for (final int key : keys) assertArrayEquals(map.get(key), keyDir.get(BitcaskTest.key(key)));
+        }
+    }
+
+    @RepeatedTest(5)
+    void testConcurrent(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final Map<Integer, byte[]> map = new ConcurrentHashMap<>();
+        final int[] keys = new int[random.nextInt(100) + 100];
+        for (int i = 0; i < keys.length; i++) keys[i] = random.nextInt();
+        final AtomicBoolean flag = new AtomicBoolean(true);
+        try (final KeyDir keyDir = new KeyDir(path); final Merger merger = new Merger(keyDir)) {
+            writeRandomly(random, keyDir, map, keys, random.nextInt(1000) + 2000);
+            final Thread[] threads = new Thread[8];
+            for (int i = 0; i < threads.length; i++) {
+                final int remainder = i;
+                threads[i] = new Thread(() -> {
+                    try {
+                        // every thread owns the keys at its own positions, so the expected values are exact
+                        for (int n = random.nextInt(1000) + 1000; n > 0; n--) {
+                            final int key = keys[random.nextInt(keys.length / threads.length) * threads.length + remainder];
+                            if (random.nextInt(4) == 0) {
+                                final byte[] value = BitcaskTest.genEntry(random).value;
+                                keyDir.put(BitcaskTest.key(key), value);
+                                map.put(key, value);
+                            } else {
+                                assertArrayEquals(map.get(key), keyDir.get(BitcaskTest.key(key)));
+                            }
+                        }
+                    } catch (final Throwable t) {
+                        flag.set(false);
+                        throw new RuntimeException(t);
+                    }
+                });
+            }
+            for (final Thread thread : threads) thread.start();
+            merger.merge();
+            for (final Thread thread : threads) thread.join();
+        }
+        assertTrue(flag.get());
+        try (final KeyDir keyDir = new KeyDir(path)) {
+            for (final int key : keys) assertArrayEquals(map.get(key), keyDir.get(BitcaskTest.key(key)));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package bitcask;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+    private static long sum(final Map<Integer, Long> bytes) {
+        long sum = 0;
+        for (final long b : bytes.values()) sum += b;
+        return sum;
+    }
+
+    // the live and dead bytes of every data file add up to the file without its header
+    private static void checkFileBytes(final Path path, final Metrics metrics, final Map<Integer, byte[]> map) {
+        final Map<Integer, Long> live = metrics.getLiveBytes();
+        final Map<Integer, Long> dead = metrics.getDeadBytes();
+        long expectedLive = 0;
+        for (final Map.Entry<Integer, byte[]> entry : map.entrySet()) {
+            expectedLive += Metrics.entrySize(BitcaskTest.key(entry.getKey()), entry.getValue().length);
+        }
+        assertEquals(expectedLive, sum(live));
+        for (final File file : Objects.requireNonNull(path.toFile().listFiles())) {
+            if (!file.getName().startsWith(Bitcask.DATA_FILE_PREFIX)) continue;
+            final int fileId = Integer.parseInt(file.getName().substring(Bitcask.DATA_FILE_PREFIX.length()));
+            final long bytes = live.getOrDefault(fileId, 0L) + dead.getOrDefault(fileId, 0L);
+            assertEquals(file.length() - DataFileEntry.FILE_HEADER.length, bytes, "data file " + fileId);
+        }
+    }
+
+    @RepeatedTest(5)
+    void testFileBytes(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final Map<Integer, byte[]> map = new HashMap<>();
+        final int[] keys = new int[random.nextInt(100) + 100];
+        for (int i = 0; i < keys.length; i++) keys[i] = random.nextInt();
+        try (final KeyDir keyDir = new KeyDir(path)) {
+            int puts = 0;
+            int deletes = 0;
+            for (int n = random.nextInt(1000) + 1000; n > 0; n--) {
+                final int key = keys[random.nextInt(keys.length)];
+                if (random.nextInt(4) == 0) {
+                    keyDir.put(BitcaskTest.key(key), null);
+                    map.remove(key);
+                    deletes++;
+                } else {
+                    final byte[] value = BitcaskTest.genEntry(random).value;
+                    keyDir.put(BitcaskTest.key(key), value);
+                    map.put(key, value);
+                    puts++;
+                }
+            }
+            assertEquals(puts, keyDir.metrics().getPuts());
+            assertEquals(deletes, keyDir.metrics().getDeletes());
+            assertTrue(keyDir.metrics().getBytesAppended() > 0);
+            assertTrue(keyDir.metrics().getRollovers() > 0);
+            checkFileBytes(path, keyDir.metrics(), map);
+        }
+        // recovery finds the same live and dead bytes
+        try (final KeyDir keyDir = new KeyDir(path)) {
+            checkFileBytes(path, keyDir.metrics(), map);
+            try (final Merger merger = new Merger(keyDir)) {
+                merger.merge();
+            }
+            checkFileBytes(path, keyDir.metrics(), map);
+            assertEquals(0, keyDir.metrics().getReadQueueDepth());
+        }
+    }
+
+    @RepeatedTest(5)
+    void testReporterAndMBean(@TempDir Path tempDir) throws Exception {
+        final AtomicReference<Metrics.Snapshot> reported = new AtomicReference<>();
+        try (final Bitcask bitcask = new Bitcask(tempDir)) {
+            bitcask.metrics().addReporter(reported::set);
+            final byte[] key = BitcaskTest.key(1);
+            for (int i = 0; i < 10; i++) bitcask.put(key, key);
+            for (int i = 0; i < 20; i++) assertArrayEquals(key, bitcask.get(key));
+            bitcask.metrics().tick();
+            assertEquals(10, reported.get().put.getCount());
+            assertEquals(20, reported.get().get.getCount());
+            assertTrue(reported.get().get.getP99Micros() > 0);
+
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName("bitcask:type=Metrics,name=" + ObjectName.quote(tempDir.toAbsolutePath().toString()));
+            assertEquals(10L, server.getAttribute(name, "Puts"));
+            assertEquals(20L, ((CompositeData) server.getAttribute(name, "GetLatency")).get("count"));
+            assertNotNull(server.getAttribute(name, "LiveBytes"));
+        }
+        // closing unregisters the MBean, so the store can be opened again
+        try (final Bitcask bitcask = new Bitcask(tempDir)) {
+            assertEquals(0, bitcask.metrics().getPuts());
+        }
+    }
+}
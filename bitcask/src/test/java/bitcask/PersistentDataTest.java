@@ -5,8 +5,16 @@ import org.junit.jupiter.api.io.TempDir;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -14,21 +22,37 @@ import static org.junit.jupiter.api.Assertions.*;
 public class PersistentDataTest {
     private static final Logger LOG = LoggerFactory.getLogger(PersistentDataTest.class);
 
+    private static final PersistentData.Loader IGNORE = (key, valueSize, timestamp, expiresAt, fileId, valuePos) -> {};
+
     static class Checker {
+        static final class Loaded {
+            final byte[] key;
+            final int valueSize;
+            final long timestamp;
+            Loaded(final byte[] key, final int valueSize, final long timestamp) {
+                this.key = key;
+                this.valueSize = valueSize;
+                this.timestamp = timestamp;
+            }
+        }
+
         final ArrayList<DataFileEntry> entries = new ArrayList<>();
-        int pos = 0;
-        void check(final PersistentData.Entry incoming) {
-            final DataFileEntry actual = incoming.entry;
-            assertTrue(pos < entries.size());
-            final DataFileEntry expected = entries.get(pos);
-            pos++;
-            assertEquals(actual.CRC, expected.CRC);
-            assertEquals(actual.timestamp, expected.timestamp);
-            assertEquals(actual.keySize, expected.keySize);
-            assertEquals(actual.valueSize, expected.valueSize);
-            assertEquals(actual.key, expected.key);
-            assertEquals(actual.value, expected.value);
-            assertArrayEquals(actual.data, expected.data);
+        // the files are loaded in parallel, so the entries are put back in write order by their position
+        final ConcurrentSkipListMap<Long, Loaded> loaded = new ConcurrentSkipListMap<>();
+        void check(final byte[] key, final int valueSize, final long timestamp, final long expiresAt,
+                   final int fileId, final long valuePos) {
+            assertNull(loaded.put(((long) fileId << 32) | valuePos, new Loaded(key, valueSize, timestamp)));
+        }
+        void verify() {
+            assertEquals(entries.size(), loaded.size());
+            int pos = 0;
+            for (final Loaded actual : loaded.values()) {
+                final DataFileEntry expected = entries.get(pos++);
+                assertEquals(expected.timestamp, actual.timestamp);
+                assertEquals(expected.valueSize, actual.valueSize);
+                assertArrayEquals(expected.key, actual.key);
+            }
+            loaded.clear();
         }
     }
 
@@ -38,7 +62,7 @@ public class PersistentDataTest {
         random.setSeed(System.currentTimeMillis());
         final Path path = tempDir.resolve("" + random.nextInt(10));
         DataFileEntry[] entries = BitcaskTest.genEntries();
-        try (final PersistentData data = new PersistentData(path, i->{})) {
+        try (final PersistentData data = new PersistentData(path, IGNORE)) {
             for (final DataFileEntry entry : entries) {
                 data.append(entry);
             }
@@ -46,7 +70,7 @@ public class PersistentDataTest {
         final Checker checker = new Checker();
         checker.entries.addAll(Arrays.asList(entries));
         try (final PersistentData data = new PersistentData(path, checker::check)) {
-            assertEquals(checker.pos, checker.entries.size());
+            checker.verify();
             entries = BitcaskTest.genEntries();
             for (final DataFileEntry entry : entries) {
                 data.append(entry);
@@ -62,18 +86,237 @@ public class PersistentDataTest {
                 checker.entries.add(entry);
             }
         }
-        checker.pos = 0;
         try (final PersistentData data = new PersistentData(path, checker::check)) {
-            assertEquals(checker.pos, checker.entries.size());
+            checker.verify();
             entries = BitcaskTest.genEntries();
             for (final DataFileEntry entry : entries) {
                 data.append(entry);
             }
             checker.entries.addAll(Arrays.asList(entries));
         }
-        checker.pos = 0;
         try (final PersistentData data = new PersistentData(path, checker::check)) {
-            assertEquals(checker.pos, checker.entries.size());
+            checker.verify();
+        }
+    }
+
+    @RepeatedTest(5)
+    void testWriteFailure(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final Checker checker = new Checker();
+        final ArrayList<KeyDir.Value> values = new ArrayList<>();
+        final Metrics metrics = new Metrics();
+        try (final PersistentData data = new PersistentData(path, IGNORE, BitcaskOptions.DEFAULT, metrics)) {
+            for (int n = 0; n < 3; n++) {
+                for (int i = random.nextInt(100); i > 0; i--) {
+                    final DataFileEntry entry = BitcaskTest.genEntry(random);
+                    values.add(data.append(entry));
+                    checker.entries.add(entry);
+                }
+                // the failed entry is cut off, and the next ones take its place in the file and in the hint
+                assertThrows(IOException.class, () -> data.appendAndFail(BitcaskTest.genEntry(random)));
+            }
+            // enough to seal the file with the failed writes, so that its hint is written
+            for (final DataFileEntry entry : BitcaskTest.genEntries()) {
+                values.add(data.append(entry));
+                checker.entries.add(entry);
+            }
+            for (int i = 0; i < values.size(); i++) {
+                final KeyDir.Value value = values.get(i);
+                assertArrayEquals(checker.entries.get(i).value,
+                        data.read(value.fileId, value.valuePos, checker.entries.get(i).key.length, value.valueSize));
+            }
+        }
+        // the bytes of the failed writes are cut off, and not counted as appended
+        long bytes = 0;
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(path, Bitcask.DATA_FILE_PREFIX + "*")) {
+            for (final Path file : files) bytes += Files.size(file);
+        }
+        assertEquals(bytes, metrics.getBytesAppended());
+        try (final PersistentData data = new PersistentData(path, checker::check)) {
+            checker.verify();
+        }
+        // the sealed files are loaded from their hints, and a scan of them finds the same entries
+        try (final DirectoryStream<Path> hints = Files.newDirectoryStream(path, Bitcask.HINT_FILE_PREFIX + "*")) {
+            for (final Path hint : hints) Files.delete(hint);
+        }
+        try (final PersistentData data = new PersistentData(path, checker::check)) {
+            checker.verify();
+        }
+    }
+
+    @RepeatedTest(5)
+    void testWriteFailureAcrossFiles(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final BitcaskOptions options = BitcaskOptions.builder().dataFileSize(1 << 16).writeBatchSize(1 << 16)
+                .syncPolicy(random.nextBoolean() ? SyncPolicy.BATCH : SyncPolicy.NONE).build();
+        final ArrayList<DataFileEntry> entries = new ArrayList<>();
+        final ArrayList<CompletableFuture<KeyDir.Value>> results = new ArrayList<>();
+        try (final PersistentData data = new PersistentData(path, IGNORE, options, new Metrics())) {
+            // queued while the writer waits, so that a batch seals files before the flush that fails
+            synchronized (data) {
+                data.failFlushIn(random.nextInt(3) + 2);
+                for (int n = random.nextInt(200) + 200; n > 0; n--) {
+                    // 2 KB values, so that the entries fill more files than the one that fails
+                    final byte[] value = new byte[2048];
+                    random.nextBytes(value);
+                    final DataFileEntry entry = new DataFileEntry(System.currentTimeMillis(),
+                            BitcaskTest.genBytes(random, 64), value);
+                    entries.add(entry);
+                    results.add(data.appendAsync(entry));
+                }
+            }
+            int failed = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                try {
+                    final KeyDir.Value value = results.get(i).get();
+                    assertArrayEquals(entries.get(i).value, data.read(value.fileId, value.valuePos, value.valueSize));
+                } catch (final ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                    failed++;
+                }
+            }
+            assertTrue(failed > 0 && failed < entries.size(), failed + " of " + entries.size());
+        }
+        // exactly the appends that succeeded come back
+        final Checker checker = new Checker();
+        for (int i = 0; i < entries.size(); i++) {
+            if (!results.get(i).isCompletedExceptionally()) checker.entries.add(entries.get(i));
+        }
+        try (final PersistentData data = new PersistentData(path, checker::check, options, new Metrics())) {
+            checker.verify();
+        }
+    }
+
+    @RepeatedTest(5)
+    void testSealSyncs(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final Metrics metrics = new Metrics();
+        final BitcaskOptions options = BitcaskOptions.builder().syncPolicy(SyncPolicy.interval(3600 * 1000)).build();
+        try (final PersistentData data = new PersistentData(path, IGNORE, options, metrics)) {
+            // the first write syncs, and the next ones wait for the interval
+            for (int n = random.nextInt(10) + 2; n > 0; n--) data.append(BitcaskTest.genEntry(random));
+            final long syncs = metrics.sync.count();
+            // a file sealed for merge is forced, since no interval sync covers it once sealed
+            data.sealForMerge();
+            assertEquals(syncs + 1, metrics.sync.count());
+        }
+    }
+
+    @RepeatedTest(5)
+    void testHintFiles(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final DataFileEntry[] entries = BitcaskTest.genEntries();
+        final int files;
+        try (final PersistentData data = new PersistentData(path, IGNORE)) {
+            for (final DataFileEntry entry : entries) {
+                data.append(entry);
+            }
+            files = data.dataFiles.size();
+        }
+        assertTrue(files > 2);
+        for (int fileId = 0; fileId < files; fileId++) {
+            // the last file is sealed too if the last entry filled it up
+            final boolean sealed = fileId + 1 < files ||
+                    Files.size(path.resolve(Bitcask.DATA_FILE_PREFIX + fileId)) > Bitcask.DATA_FILE_SIZE_LIMIT;
+            assertEquals(sealed, path.resolve(Bitcask.HINT_FILE_PREFIX + fileId).toFile().exists());
+        }
+        // a missing or stale hint file falls back to scanning the data file
+        Files.delete(path.resolve(Bitcask.HINT_FILE_PREFIX + 0));
+        Files.write(path.resolve(Bitcask.HINT_FILE_PREFIX + 1), new byte[HintFile.RECORD_HEADER_SIZE + HintFile.TRAILER_SIZE]);
+        final Checker checker = new Checker();
+        checker.entries.addAll(Arrays.asList(entries));
+        try (final PersistentData data = new PersistentData(path, checker::check)) {
+            checker.verify();
+        }
+        assertTrue(path.resolve(Bitcask.HINT_FILE_PREFIX + 0).toFile().exists());
+        try (final PersistentData data = new PersistentData(path, checker::check)) {
+            checker.verify();
+        }
+    }
+
+    private static void flipByte(final Path file, final long pos) throws IOException {
+        try (final RandomAccessFile output = new RandomAccessFile(file.toFile(), "rw")) {
+            output.seek(pos);
+            final int b = output.read();
+            output.seek(pos);
+            output.write(b ^ 0x10);
+        }
+    }
+
+    @RepeatedTest(5)
+    void testCorruptEntry(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final DataFileEntry[] entries = BitcaskTest.genEntries();
+        try (final PersistentData data = new PersistentData(path, IGNORE)) {
+            for (final DataFileEntry entry : entries) {
+                data.append(entry);
+            }
+        }
+        // scan every file, and corrupt an entry of the first one
+        for (int fileId = 0; Files.exists(path.resolve(Bitcask.DATA_FILE_PREFIX + fileId)); fileId++) {
+            Files.deleteIfExists(path.resolve(Bitcask.HINT_FILE_PREFIX + fileId));
+        }
+        final Path first = path.resolve(Bitcask.DATA_FILE_PREFIX + 0);
+        final long length = Files.size(first);
+        int count = 0;
+        long end = DataFileEntry.FILE_HEADER.length;
+        while (end < length) end += entries[count++].data.length;
+        final int corrupt = random.nextInt(count);
+        long pos = DataFileEntry.FILE_HEADER.length;
+        for (int i = 0; i < corrupt; i++) pos += entries[i].data.length;
+        flipByte(first, pos + random.nextInt(entries[corrupt].data.length));
+        // the rest of the first file is not loaded, the other files are intact
+        final Checker checker = new Checker();
+        checker.entries.addAll(Arrays.asList(entries).subList(0, corrupt));
+        checker.entries.addAll(Arrays.asList(entries).subList(count, entries.length));
+        try (final PersistentData data = new PersistentData(path, checker::check)) {
+            checker.verify();
+        }
+        // but a sealed file is never shortened, nor hinted, so the next start finds the bad entry again
+        assertEquals(length, Files.size(first));
+        assertFalse(Files.exists(path.resolve(Bitcask.HINT_FILE_PREFIX + 0)));
+        try (final PersistentData data = new PersistentData(path, checker::check)) {
+            checker.verify();
+        }
+        assertEquals(length, Files.size(first));
+    }
+
+    @RepeatedTest(5)
+    void testVerifyChecksums(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final DataFileEntry[] entries = BitcaskTest.genEntries();
+        final KeyDir.Value[] values = new KeyDir.Value[entries.length];
+        try (final PersistentData data = new PersistentData(path, IGNORE)) {
+            for (int i = 0; i < entries.length; i++) {
+                values[i] = data.append(entries[i]);
+            }
+        }
+        // sealed files are loaded from their hints, so only a verified read notices the corruption
+        int corrupt = random.nextInt(entries.length);
+        while (values[corrupt].fileId != 0 || entries[corrupt].valueSize == 0) corrupt = random.nextInt(entries.length);
+        flipByte(path.resolve(Bitcask.DATA_FILE_PREFIX + 0), values[corrupt].valuePos + random.nextInt(values[corrupt].valueSize));
+        try (final PersistentData data = new PersistentData(path, IGNORE, BitcaskOptions.builder().verifyChecksums(true).build(), new Metrics())) {
+            for (int i = 0; i < entries.length; i++) {
+                final KeyDir.Value value = values[i];
+                final int keySize = entries[i].keySize;
+                if (i == corrupt) {
+                    assertThrows(DataFileEntry.Corrupt.class, () -> data.read(value.fileId, value.valuePos, keySize, value.valueSize));
+                } else {
+                    assertArrayEquals(entries[i].value, data.read(value.fileId, value.valuePos, keySize, value.valueSize));
+                }
+            }
         }
     }
 
@@ -83,36 +326,87 @@ public class PersistentDataTest {
         random.setSeed(System.currentTimeMillis());
         final Path path = tempDir.resolve("" + random.nextInt(10));
         DataFileEntry[] entries = BitcaskTest.genEntries();
-        final Map<Integer, KeyDir.Value> keyDir = new HashMap<>();
-        final Map<Integer, String> map = new HashMap<>();
-        try (final PersistentData data = new PersistentData(path, i->{})) {
+        final Map<Key, KeyDir.Value> keyDir = new HashMap<>();
+        final Map<Key, byte[]> map = new HashMap<>();
+        try (final PersistentData data = new PersistentData(path, IGNORE)) {
             for (final DataFileEntry entry : entries) {
                 final KeyDir.Value value = data.append(entry);
-                keyDir.put(entry.key, value);
-                map.put(entry.key, entry.value);
+                keyDir.put(new Key(entry.key), value);
+                map.put(new Key(entry.key), entry.value);
             }
             final Object[] set = keyDir.entrySet().toArray();
             for (int n = random.nextInt(1000) + 1000; n > 0; n--) {
-                final Map.Entry<Integer, KeyDir.Value> entry = (Map.Entry<Integer, KeyDir.Value>) set[random.nextInt(set.length)];
+                final Map.Entry<Key, KeyDir.Value> entry = (Map.Entry<Key, KeyDir.Value>) set[random.nextInt(set.length)];
                 final KeyDir.Value value = entry.getValue();
-                assertEquals(data.read(value.fileId, value.valuePos, value.valueSize), map.get(entry.getKey()));
+                assertArrayEquals(data.read(value.fileId, value.valuePos, value.valueSize), map.get(entry.getKey()));
             }
         }
     }
 
+    @RepeatedTest(5)
+    void testGroupCommit(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final ConcurrentHashMap<DataFileEntry, KeyDir.Value> values = new ConcurrentHashMap<>();
+        final SyncPolicy syncPolicy = random.nextBoolean() ? SyncPolicy.BATCH : SyncPolicy.interval(10);
+        try (final PersistentData data = new PersistentData(path, IGNORE, BitcaskOptions.builder().syncPolicy(syncPolicy).build(), new Metrics())) {
+            final Thread[] threads = new Thread[random.nextInt(10) + 10];
+            final AtomicBoolean flag = new AtomicBoolean(true);
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(() -> {
+                    try {
+                        for (int n = random.nextInt(100) + 100; n > 0; n--) {
+                            final DataFileEntry entry = BitcaskTest.genEntry(random);
+                            values.put(entry, data.append(entry));
+                        }
+                    } catch (final Throwable t) {
+                        flag.set(false);
+                        throw new RuntimeException(t);
+                    }
+                });
+            }
+            for (final Thread thread : threads) thread.start();
+            for (final Thread thread : threads) thread.join();
+            assertTrue(flag.get());
+            for (final Map.Entry<DataFileEntry, KeyDir.Value> entry : values.entrySet()) {
+                final KeyDir.Value value = entry.getValue();
+                assertArrayEquals(entry.getKey().value, data.read(value.fileId, value.valuePos, value.valueSize));
+            }
+        }
+        final Map<Key, Integer> loaded = new ConcurrentHashMap<>();
+        try (final PersistentData data = new PersistentData(path, (key, valueSize, timestamp, expiresAt, fileId, valuePos) -> loaded.merge(new Key(key), 1, Integer::sum))) {
+            for (final Map.Entry<DataFileEntry, KeyDir.Value> entry : values.entrySet()) {
+                final KeyDir.Value value = entry.getValue();
+                assertArrayEquals(entry.getKey().value, data.read(value.fileId, value.valuePos, value.valueSize));
+            }
+        }
+        assertEquals(values.size(), loaded.values().stream().mapToInt(Integer::intValue).sum());
+    }
+
     @RepeatedTest(5)
     void testConcurrent(@TempDir Path tempDir) throws Exception {
+        testConcurrentReads(tempDir, 0);
+    }
+
+    @RepeatedTest(5)
+    void testMappedConcurrent(@TempDir Path tempDir) throws Exception {
+        // fewer mapped files than data files, so that mappings get evicted
+        testConcurrentReads(tempDir, 2);
+    }
+
+    private static void testConcurrentReads(final Path tempDir, final int mappedFiles) throws Exception {
         final Random random = new Random();
         random.setSeed(System.currentTimeMillis());
         final Path path = tempDir.resolve("" + random.nextInt(10));
         DataFileEntry[] entries = BitcaskTest.genEntries();
-        final Map<Integer, KeyDir.Value> keyDir = new HashMap<>();
-        final Map<Integer, String> map = new HashMap<>();
-        try (final PersistentData data = new PersistentData(path, i->{})) {
+        final Map<Key, KeyDir.Value> keyDir = new HashMap<>();
+        final Map<Key, byte[]> map = new HashMap<>();
+        try (final PersistentData data = new PersistentData(path, IGNORE, BitcaskOptions.builder().mappedFiles(mappedFiles).build(), new Metrics())) {
             for (final DataFileEntry entry : entries) {
                 final KeyDir.Value value = data.append(entry);
-                keyDir.put(entry.key, value);
-                map.put(entry.key, entry.value);
+                keyDir.put(new Key(entry.key), value);
+                map.put(new Key(entry.key), entry.value);
             }
             final Object[] set = keyDir.entrySet().toArray();
             final Thread[] threads = new Thread[random.nextInt(10) + 10];
@@ -121,10 +415,10 @@ public class PersistentDataTest {
                 threads[i] = new Thread(() -> {
                     try {
                         for (int n = random.nextInt(1000) + 1000; n > 0; n--) {
-                            final Map.Entry<Integer, KeyDir.Value> entry = (Map.Entry<Integer, KeyDir.Value>) set[random.nextInt(set.length)];
+                            final Map.Entry<Key, KeyDir.Value> entry = (Map.Entry<Key, KeyDir.Value>) set[random.nextInt(set.length)];
                             final KeyDir.Value value = entry.getValue();
                             try {
-                                assertEquals(data.read(value.fileId, value.valuePos, value.valueSize), map.get(entry.getKey()));
+                                assertArrayEquals(data.read(value.fileId, value.valuePos, value.valueSize), map.get(entry.getKey()));
                             } catch (Exception e) {
                                 fail(e);
                             }
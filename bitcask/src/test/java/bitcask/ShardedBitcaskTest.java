@@ -0,0 +1,139 @@
+package bitcask;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedBitcaskTest {
+    private static void assertStore(final TreeMap<Key, byte[]> expected, final Key[] keys,
+                                    final ShardedBitcask store) throws Exception {
+        assertEquals(expected.size(), store.size());
+        final byte[][] bytes = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) bytes[i] = keys[i].bytes;
+        final byte[][] values = store.multiGet(bytes);
+        for (int i = 0; i < keys.length; i++) {
+            assertArrayEquals(expected.get(keys[i]), values[i]);
+            assertArrayEquals(expected.get(keys[i]), store.get(keys[i].bytes));
+        }
+    }
+
+    @RepeatedTest(5)
+    void testSharded(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final List<Path> paths = new ArrayList<>();
+        for (int n = random.nextInt(4) + 2; n > 0; n--) paths.add(tempDir.resolve("shard" + n));
+        final BitcaskOptions options = BitcaskOptions.builder().index(KeyIndex.Type.ORDERED).dataFileSize(1 << 16)
+                .build();
+        final Key[] keys = new Key[random.nextInt(1000) + 1000];
+        for (int i = 0; i < keys.length; i++) keys[i] = new Key(BitcaskTest.key(random.nextInt()));
+        final TreeMap<Key, byte[]> map = new TreeMap<>();
+        try (final ShardedBitcask store = new ShardedBitcask(paths, options)) {
+            for (int n = random.nextInt(2000) + 1000; n > 0; n--) {
+                final Key key = keys[random.nextInt(keys.length)];
+                final byte[] value = random.nextInt(4) == 0 ? null : BitcaskTest.genBytes(random, 1024);
+                if (random.nextInt(10) == 0) {
+                    // a batch over many shards
+                    final byte[][] batch = new byte[random.nextInt(50) + 1][];
+                    final byte[][] values = new byte[batch.length][];
+                    for (int i = 0; i < batch.length; i++) {
+                        final Key k = keys[random.nextInt(keys.length)];
+                        batch[i] = k.bytes;
+                        values[i] = random.nextInt(4) == 0 ? null : BitcaskTest.genBytes(random, 1024);
+                        if (values[i] == null) map.remove(k);
+                        else map.put(k, values[i]);
+                    }
+                    store.multiPut(batch, values);
+                    continue;
+                }
+                store.put(key.bytes, value);
+                if (value == null) map.remove(key);
+                else map.put(key, value);
+            }
+            assertStore(map, keys, store);
+            // every shard takes a share of the keys, and a key lives in its shard only
+            for (final Bitcask shard : store.shards) assertTrue(shard.size() > 0);
+            for (final Key key : map.keySet()) {
+                for (int s = 0; s < store.shards.length; s++) {
+                    assertEquals(s == store.shard(key.bytes), store.shards[s].containsKey(key.bytes));
+                }
+            }
+            // a scan merges the shards in key order
+            final Key from = keys[random.nextInt(keys.length)];
+            final int limit = random.nextInt(200);
+            final List<Map.Entry<byte[], byte[]>> scanned = store.scan(from.bytes, null, limit);
+            final Iterator<Map.Entry<Key, byte[]>> expected = map.tailMap(from, true).entrySet().iterator();
+            for (final Map.Entry<byte[], byte[]> entry : scanned) {
+                final Map.Entry<Key, byte[]> next = expected.next();
+                assertArrayEquals(next.getKey().bytes, entry.getKey());
+                assertArrayEquals(next.getValue(), entry.getValue());
+            }
+            assertEquals(Math.min(limit, map.tailMap(from, true).size()), scanned.size());
+            final byte[][] deleted = new byte[random.nextInt(100)][];
+            for (int i = 0; i < deleted.length; i++) {
+                deleted[i] = keys[random.nextInt(keys.length)].bytes;
+                map.remove(new Key(deleted[i]));
+            }
+            store.multiDelete(deleted);
+            store.merge();
+            assertStore(map, keys, store);
+        }
+        try (final ShardedBitcask store = new ShardedBitcask(paths, options)) {
+            assertStore(map, keys, store);
+        }
+        // the keys of a shard are lost to another order or count of the directories
+        final List<Path> reordered = new ArrayList<>(paths);
+        Collections.swap(reordered, 0, 1);
+        assertThrows(IOException.class, () -> new ShardedBitcask(reordered, options));
+        assertThrows(IOException.class, () -> new ShardedBitcask(paths.subList(1, paths.size()), options));
+    }
+
+    @RepeatedTest(5)
+    void testConcurrent(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final List<Path> paths = Arrays.asList(tempDir.resolve("a"), tempDir.resolve("b"), tempDir.resolve("c"));
+        final byte[] counter = BitcaskTest.key(-1);
+        final Thread[] threads = new Thread[8];
+        final int rounds = random.nextInt(200) + 100;
+        final AtomicBoolean flag = new AtomicBoolean(true);
+        try (final ShardedBitcask store = new ShardedBitcask(paths)) {
+            for (int t = 0; t < threads.length; t++) {
+                final int thread = t;
+                threads[t] = new Thread(() -> {
+                    try {
+                        for (int n = 0; n < rounds; n++) {
+                            store.increment(counter, 1);
+                            // the thread owns its keys, so it reads its own writes
+                            final byte[][] keys = new byte[8][];
+                            final byte[][] values = new byte[keys.length][];
+                            for (int i = 0; i < keys.length; i++) {
+                                keys[i] = BitcaskTest.key(thread << 16 | i);
+                                values[i] = BitcaskTest.key(n);
+                            }
+                            store.multiPut(keys, values);
+                            final byte[][] read = store.multiGet(keys);
+                            for (int i = 0; i < keys.length; i++) assertArrayEquals(values[i], read[i]);
+                        }
+                    } catch (final Throwable e) {
+                        flag.set(false);
+                        throw new RuntimeException(e);
+                    }
+                });
+            }
+            for (final Thread thread : threads) thread.start();
+            for (final Thread thread : threads) thread.join();
+            assertTrue(flag.get());
+            assertEquals((long) threads.length * rounds,
+                    Long.parseLong(new String(store.get(counter), StandardCharsets.US_ASCII)));
+            assertEquals(threads.length * 8 + 1, store.size());
+        }
+    }
+}
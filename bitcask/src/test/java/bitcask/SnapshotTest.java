@@ -0,0 +1,152 @@
+package bitcask;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotTest {
+    private static int dataFiles(final Path path) {
+        int count = 0;
+        for (final File file : Objects.requireNonNull(path.toFile().listFiles())) {
+            if (file.getName().startsWith(Bitcask.DATA_FILE_PREFIX)) count++;
+        }
+        return count;
+    }
+
+    private static void assertSnapshot(final TreeMap<Key, byte[]> expected, final Snapshot snapshot) throws Exception {
+        assertEquals(expected.size(), snapshot.size());
+        final Iterator<Map.Entry<byte[], byte[]>> iterator = snapshot.iterator();
+        for (final Map.Entry<Key, byte[]> entry : expected.entrySet()) {
+            assertTrue(iterator.hasNext());
+            final Map.Entry<byte[], byte[]> read = iterator.next();
+            assertArrayEquals(entry.getKey().bytes, read.getKey());
+            assertArrayEquals(entry.getValue(), read.getValue());
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    private static void write(final Random random, final KeyDir keyDir, final Key[] keys,
+                              final TreeMap<Key, byte[]> map, final int n) {
+        for (int i = 0; i < n; i++) {
+            final Key key = keys[random.nextInt(keys.length)];
+            final byte[] value = random.nextInt(4) == 0 ? null : BitcaskTest.genBytes(random, 1024);
+            // an asynchronous put is in the snapshot taken after it, even if it is not complete yet
+            if (random.nextBoolean()) keyDir.putAsync(key.bytes, value);
+            else keyDir.put(key.bytes, value);
+            if (value == null) map.remove(key);
+            else map.put(key, value);
+        }
+    }
+
+    @RepeatedTest(5)
+    void testConsistent(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("store");
+        final Path backup = tempDir.resolve("backup");
+        final KeyIndex.Type type = KeyIndex.Type.values()[random.nextInt(KeyIndex.Type.values().length)];
+        final BitcaskOptions options = BitcaskOptions.builder().index(type).dataFileSize(1 << 16).build();
+        final TreeMap<Key, byte[]> map = new TreeMap<>();
+        final Key[] keys = new Key[random.nextInt(500) + 500];
+        for (int i = 0; i < keys.length; i++) keys[i] = new Key(BitcaskTest.key(random.nextInt()));
+        final TreeMap<Key, byte[]> expected;
+        try (final KeyDir keyDir = new KeyDir(path, options); final Merger merger = new Merger(keyDir)) {
+            write(random, keyDir, keys, map, random.nextInt(1000) + 1000);
+            try (final Snapshot snapshot = keyDir.snapshot()) {
+                expected = new TreeMap<>(map);
+                // the writes and merges that follow do not change the snapshot
+                for (int n = random.nextInt(3) + 1; n > 0; n--) {
+                    write(random, keyDir, keys, map, random.nextInt(1000) + 500);
+                    merger.merge();
+                }
+                assertSnapshot(expected, snapshot);
+                for (int n = 0; n < 100; n++) {
+                    final Key key = keys[random.nextInt(keys.length)];
+                    assertArrayEquals(expected.get(key), snapshot.get(key.bytes));
+                }
+                final Key from = keys[random.nextInt(keys.length)];
+                int count = 0;
+                final Iterator<Map.Entry<byte[], byte[]>> scan = snapshot.scan(from.bytes, null, 10);
+                for (final Map.Entry<Key, byte[]> entry : expected.tailMap(from, true).entrySet()) {
+                    if (count++ == 10) break;
+                    assertArrayEquals(entry.getKey().bytes, scan.next().getKey());
+                }
+                assertFalse(scan.hasNext());
+                snapshot.backup(backup);
+            }
+            // the files merged while the snapshot was open are deleted once it is closed
+            keyDir.data().barrier();
+            assertEquals(keyDir.data().dataFiles.size(), dataFiles(path));
+            for (final Key key : keys) assertArrayEquals(map.get(key), keyDir.get(key.bytes));
+        }
+        try (final KeyDir keyDir = new KeyDir(backup, options)) {
+            assertEquals(expected.size(), keyDir.size());
+            for (final Key key : keys) assertArrayEquals(expected.get(key), keyDir.get(key.bytes));
+        }
+    }
+
+    @RepeatedTest(5)
+    void testConcurrent(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final BitcaskOptions options = BitcaskOptions.builder().dataFileSize(1 << 16)
+                .mergeTriggerFiles(4).mergeCheckIntervalMs(10).mergeBytesPerSecond(1 << 30).build();
+        final int keysPerThread = 50;
+        final Thread[] threads = new Thread[4];
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicBoolean flag = new AtomicBoolean(true);
+        try (final KeyDir keyDir = new KeyDir(path, options); final Merger merger = new Merger(keyDir)) {
+            for (int t = 0; t < threads.length; t++) {
+                final int thread = t;
+                threads[t] = new Thread(() -> {
+                    try {
+                        // the n-th write puts n into the key n % keysPerThread of the thread
+                        for (long n = 0; running.get(); n++) {
+                            final byte[] key = BitcaskTest.key(thread << 16 | (int) (n % keysPerThread));
+                            final byte[] value = ByteBuffer.allocate(8 + 256).putLong(n).array();
+                            if (n % 3 == 0) keyDir.putAsync(key, value);
+                            else keyDir.put(key, value);
+                        }
+                    } catch (final Throwable e) {
+                        flag.set(false);
+                        throw e;
+                    }
+                });
+            }
+            for (final Thread thread : threads) thread.start();
+            for (int s = 0; s < 10; s++) {
+                Thread.sleep(random.nextInt(50));
+                try (final Snapshot snapshot = keyDir.snapshot()) {
+                    final long[][] seen = new long[threads.length][keysPerThread];
+                    for (final long[] row : seen) Arrays.fill(row, -1);
+                    final Iterator<Map.Entry<byte[], byte[]>> iterator = snapshot.iterator();
+                    while (iterator.hasNext()) {
+                        final Map.Entry<byte[], byte[]> entry = iterator.next();
+                        final int key = ByteBuffer.wrap(entry.getKey()).getInt();
+                        seen[key >>> 16][key & 0xFFFF] = ByteBuffer.wrap(entry.getValue()).getLong();
+                    }
+                    // a point in time sees a prefix of the writes of every thread
+                    for (final long[] row : seen) {
+                        long last = -1;
+                        for (final long n : row) last = Math.max(last, n);
+                        for (int k = 0; k < keysPerThread; k++) {
+                            final long expected = last - ((last - k) % keysPerThread + keysPerThread) % keysPerThread;
+                            assertEquals(expected >= 0 ? expected : -1, row[k]);
+                        }
+                    }
+                }
+            }
+            running.set(false);
+            for (final Thread thread : threads) thread.join();
+        }
+        assertTrue(flag.get());
+    }
+}
@@ -0,0 +1,95 @@
+package bitcask;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ValueCacheTest {
+    @RepeatedTest(5)
+    void testBounded() {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final long capacity = random.nextInt(1 << 16) + (1 << 16);
+        final Metrics metrics = new Metrics();
+        final ValueCache cache = new ValueCache(capacity, metrics);
+        final Map<Long, byte[]> values = new HashMap<>();
+        for (int n = random.nextInt(1000) + 1000; n > 0; n--) {
+            final int fileId = random.nextInt(4);
+            final long pos = random.nextInt(1 << 20);
+            final byte[] value = new byte[random.nextInt(1000)];
+            random.nextBytes(value);
+            // a position is written once
+            if (values.putIfAbsent((long) fileId << 32 | pos, value) != null) continue;
+            cache.put(fileId, pos, value);
+            assertTrue(metrics.getCacheBytes() <= capacity);
+            final byte[] cached = cache.get(fileId, pos);
+            if (cached != null) assertArrayEquals(values.get((long) fileId << 32 | pos), cached);
+        }
+        assertTrue(metrics.getCacheHits() > 0);
+        for (int fileId = 0; fileId < 4; fileId++) cache.removeFile(fileId);
+        assertEquals(0, metrics.getCacheBytes());
+        for (final long position : values.keySet()) {
+            assertNull(cache.get((int) (position >>> 32), position & 0xFFFFFFFFL));
+        }
+    }
+
+    @RepeatedTest(5)
+    void testCoherent(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final long capacity = random.nextInt(1 << 20) + (1 << 16);
+        final Map<Integer, byte[]> map = new HashMap<>();
+        final int[] keys = new int[random.nextInt(100) + 100];
+        for (int i = 0; i < keys.length; i++) keys[i] = random.nextInt();
+        try (final KeyDir keyDir = new KeyDir(path, BitcaskOptions.builder()
+                .verifyChecksums(random.nextBoolean()).cacheBytes(capacity).build());
+             final Merger merger = new Merger(keyDir)) {
+            for (int n = random.nextInt(2000) + 2000; n > 0; n--) {
+                final int key = keys[random.nextInt(keys.length)];
+                switch (random.nextInt(8)) {
+                    case 0:
+                        keyDir.put(BitcaskTest.key(key), null);
+                        map.remove(key);
+                        break;
+                    case 1: {
+                        final byte[] value = BitcaskTest.genEntry(random).value;
+                        keyDir.put(BitcaskTest.key(key), value);
+                        map.put(key, value);
+                        break;
+                    }
+                    case 2: {
+                        final byte[][] multiKeys = new byte[10][];
+                        for (int i = 0; i < multiKeys.length; i++) {
+                            multiKeys[i] = BitcaskTest.key(keys[random.nextInt(keys.length)]);
+                        }
+                        final byte[][] values = keyDir.multiGet(multiKeys);
+                        for (int i = 0; i < multiKeys.length; i++) {
+                            assertArrayEquals(map.get(ByteBuffer.wrap(multiKeys[i]).getInt()), values[i]);
+                        }
+                        break;
+                    }
+                    case 3:
+                        if (random.nextInt(100) == 0) merger.merge();
+                        break;
+                    default: {
+                        final byte[] value = keyDir.get(BitcaskTest.key(key));
+                        assertArrayEquals(map.get(key), value);
+                        // the cached copy is not shared with the caller
+                        if (value != null && value.length > 0) value[0]++;
+                    }
+                }
+                assertTrue(keyDir.metrics().getCacheBytes() <= capacity);
+            }
+            for (final Map.Entry<Integer, byte[]> entry : map.entrySet()) {
+                assertArrayEquals(entry.getValue(), keyDir.get(BitcaskTest.key(entry.getKey())));
+            }
+            assertTrue(keyDir.metrics().getCacheHits() > 0);
+        }
+    }
+}
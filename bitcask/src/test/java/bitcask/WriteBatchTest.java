@@ -0,0 +1,105 @@
+package bitcask;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteBatchTest {
+    private static WriteBatch batch(final Random random, final Key[] keys, final HashMap<Key, byte[]> map) {
+        final WriteBatch batch = new WriteBatch();
+        for (int n = random.nextInt(50) + 1; n > 0; n--) {
+            final Key key = keys[random.nextInt(keys.length)];
+            final byte[] value = random.nextInt(4) == 0 ? null : BitcaskTest.genBytes(random, 1024);
+            batch.put(key.bytes, value);
+            if (value == null) map.remove(key);
+            else map.put(key, value);
+        }
+        return batch;
+    }
+
+    private static void assertStore(final HashMap<Key, byte[]> expected, final Key[] keys, final KeyDir keyDir)
+            throws Exception {
+        assertEquals(expected.size(), keyDir.size());
+        for (final Key key : keys) assertArrayEquals(expected.get(key), keyDir.get(key.bytes));
+    }
+
+    @RepeatedTest(5)
+    void testRecovery(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final KeyIndex.Type type = KeyIndex.Type.values()[random.nextInt(KeyIndex.Type.values().length)];
+        // one data file, so that the last batch is at the end of the file that is torn
+        final BitcaskOptions options = BitcaskOptions.builder().index(type).dataFileSize(1 << 30).build();
+        final Key[] keys = new Key[random.nextInt(100) + 100];
+        for (int i = 0; i < keys.length; i++) keys[i] = new Key(BitcaskTest.key(random.nextInt()));
+        final HashMap<Key, byte[]> before = new HashMap<>();
+        final File file;
+        final long start;
+        try (final KeyDir keyDir = new KeyDir(path, options)) {
+            for (int n = random.nextInt(20) + 1; n > 0; n--) keyDir.write(batch(random, keys, before));
+            keyDir.write(new WriteBatch());
+            keyDir.data().barrier();
+            file = keyDir.data().dataFile(keyDir.data().currentFileId);
+            start = file.length();
+        }
+        final HashMap<Key, byte[]> after = new HashMap<>(before);
+        try (final KeyDir keyDir = new KeyDir(path, options)) {
+            assertStore(before, keys, keyDir);
+            keyDir.write(batch(random, keys, after));
+            assertStore(after, keys, keyDir);
+        }
+        final long end = file.length();
+        assertTrue(end > start);
+        // a crash tears the last batch anywhere, or not at all
+        final long torn = random.nextBoolean() ? end : start + random.nextInt((int) (end - start));
+        try (final RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.setLength(torn);
+        }
+        final HashMap<Key, byte[]> expected = torn == end ? after : before;
+        try (final KeyDir keyDir = new KeyDir(path, options)) {
+            assertStore(expected, keys, keyDir);
+            // the torn batch is cut off, so the next one follows the last complete batch
+            assertEquals(torn == end ? end : start, file.length());
+            keyDir.write(batch(random, keys, expected));
+        }
+        try (final KeyDir keyDir = new KeyDir(path, options)) {
+            assertStore(expected, keys, keyDir);
+            try (final Merger merger = new Merger(keyDir)) {
+                merger.merge();
+            }
+            assertStore(expected, keys, keyDir);
+        }
+        try (final KeyDir keyDir = new KeyDir(path, options)) {
+            assertStore(expected, keys, keyDir);
+        }
+    }
+
+    @RepeatedTest(5)
+    void testTimeToLive(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Path path = tempDir.resolve("" + random.nextInt(10));
+        final byte[] key = BitcaskTest.key(random.nextInt());
+        final byte[] other = BitcaskTest.key(random.nextInt());
+        final byte[] value = BitcaskTest.genBytes(random, 1024);
+        try (final KeyDir keyDir = new KeyDir(path)) {
+            keyDir.put(other, value);
+            keyDir.write(new WriteBatch().put(key, value, 100).delete(other));
+            assertArrayEquals(value, keyDir.get(key));
+            assertNull(keyDir.get(other));
+            Thread.sleep(150);
+            assertNull(keyDir.get(key));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new WriteBatch().put(key, value, -1));
+        assertThrows(IllegalArgumentException.class,
+                () -> new WriteBatch().delete(new byte[DataFileEntry.MAX_KEY_SIZE + 1]));
+    }
+}
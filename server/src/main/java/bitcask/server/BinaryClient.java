@@ -0,0 +1,163 @@
+package bitcask.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static bitcask.server.Protocol.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * An asynchronous client of {@link BinaryServer} over one connection. Requests are written as soon as they are
+ * made, without waiting for the responses of the earlier ones, and a reader thread completes their futures.
+ * It is thread-safe.
+ */
+public final class BinaryClient implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryClient.class);
+
+    private final SocketChannel channel;
+    private final Thread reader;
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+    private volatile IOException failure = null;
+
+    public BinaryClient(final InetSocketAddress address) throws IOException {
+        this.channel = SocketChannel.open(address);
+        this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        this.reader = new Thread(this::read, "bitcask-client-reader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    public CompletableFuture<byte[]> get(final byte[] key) {
+        final int requestId = nextRequestId.getAndIncrement();
+        final ByteBuffer frame = frame(requestId, GET, size(key));
+        Protocol.put(frame, key);
+        return send(requestId, frame).thenApply(payload -> {
+            try {
+                return Protocol.get(payload);
+            } catch (final ProtocolException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Puts the key-value pair, or deletes the key if the value is null.
+     */
+    public CompletableFuture<Void> put(final byte[] key, final byte[] value) {
+        final int requestId = nextRequestId.getAndIncrement();
+        final ByteBuffer frame = frame(requestId, PUT, size(key) + size(value));
+        Protocol.put(frame, key);
+        Protocol.put(frame, value);
+        return send(requestId, frame).thenApply(payload -> null);
+    }
+
+    public CompletableFuture<Void> delete(final byte[] key) {
+        final int requestId = nextRequestId.getAndIncrement();
+        final ByteBuffer frame = frame(requestId, DELETE, size(key));
+        Protocol.put(frame, key);
+        return send(requestId, frame).thenApply(payload -> null);
+    }
+
+    public CompletableFuture<byte[][]> multiGet(final byte[][] keys) {
+        final int requestId = nextRequestId.getAndIncrement();
+        final ByteBuffer frame = frame(requestId, MULTI_GET, size(keys));
+        Protocol.put(frame, keys);
+        return send(requestId, frame).thenApply(payload -> {
+            try {
+                return getList(payload);
+            } catch (final ProtocolException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    public CompletableFuture<Void> multiPut(final byte[][] keys, final byte[][] values) {
+        final int requestId = nextRequestId.getAndIncrement();
+        final ByteBuffer frame = frame(requestId, MULTI_PUT, size(keys) + size(values));
+        Protocol.put(frame, keys);
+        Protocol.put(frame, values);
+        return send(requestId, frame).thenApply(payload -> null);
+    }
+
+    public CompletableFuture<Void> multiDelete(final byte[][] keys) {
+        final int requestId = nextRequestId.getAndIncrement();
+        final ByteBuffer frame = frame(requestId, MULTI_DELETE, size(keys));
+        Protocol.put(frame, keys);
+        return send(requestId, frame).thenApply(payload -> null);
+    }
+
+    private CompletableFuture<ByteBuffer> send(final int requestId, final ByteBuffer frame) {
+        final CompletableFuture<ByteBuffer> result = new CompletableFuture<>();
+        pending.put(requestId, result);
+        frame.flip();
+        try {
+            synchronized (channel) {
+                while (frame.hasRemaining()) channel.write(frame);
+            }
+        } catch (final IOException e) {
+            pending.remove(requestId);
+            result.completeExceptionally(e);
+        }
+        // the reader may have failed before the request was registered
+        if (failure != null && pending.remove(requestId) != null) result.completeExceptionally(failure);
+        return result;
+    }
+
+    private void readFully(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("connection closed");
+        }
+        buffer.flip();
+    }
+
+    private void read() {
+        final ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        try {
+            while (true) {
+                header.clear();
+                readFully(header);
+                final int length = header.getInt();
+                final int requestId = header.getInt();
+                final byte status = header.get();
+                if (length < FRAME_HEADER_SIZE - 4 || length > MAX_FRAME_SIZE - 4) {
+                    throw new ProtocolException("invalid frame length " + length);
+                }
+                final ByteBuffer payload = ByteBuffer.allocate(length - (FRAME_HEADER_SIZE - 4));
+                readFully(payload);
+                final CompletableFuture<ByteBuffer> result = pending.remove(requestId);
+                if (result == null) {
+                    LOG.warn("ignore response to unknown request {}", requestId);
+                } else if (status == OK) {
+                    result.complete(payload);
+                } else {
+                    final byte[] message = Protocol.get(payload);
+                    result.completeExceptionally(new IOException(message == null ? null : new String(message, UTF_8)));
+                }
+            }
+        } catch (final IOException e) {
+            failure = e;
+            for (final Integer requestId : pending.keySet()) {
+                final CompletableFuture<ByteBuffer> result = pending.remove(requestId);
+                if (result != null) result.completeExceptionally(e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        channel.close();
+        reader.join();
+    }
+}
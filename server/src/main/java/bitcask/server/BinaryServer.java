@@ -0,0 +1,110 @@
+package bitcask.server;
+
+import bitcask.Bitcask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import static bitcask.server.Protocol.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Serves a {@link Bitcask} over the binary {@link Protocol}.
+ */
+public final class BinaryServer extends NioServer {
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryServer.class);
+
+    public static final int DEFAULT_PORT = 7070;
+
+    private final Bitcask bitcask;
+
+    public BinaryServer(final Bitcask bitcask, final InetSocketAddress address, final int workers) throws IOException {
+        super(address, workers, "bitcask-binary");
+        this.bitcask = bitcask;
+        start();
+    }
+
+    @Override
+    protected Request decode(final ByteBuffer input) throws IOException {
+        if (input.remaining() < 4) return null;
+        final int length = input.getInt(input.position());
+        if (length < FRAME_HEADER_SIZE - 4 || length > MAX_FRAME_SIZE - 4) {
+            throw new ProtocolException("invalid frame length " + length);
+        }
+        if (input.remaining() < 4 + length) return null;
+        input.getInt();
+        final int requestId = input.getInt();
+        final byte opcode = input.get();
+        final byte[] payload = new byte[length - (FRAME_HEADER_SIZE - 4)];
+        input.get(payload);
+        return () -> execute(requestId, opcode, ByteBuffer.wrap(payload));
+    }
+
+    private static byte[] getKey(final ByteBuffer payload) throws ProtocolException {
+        final byte[] key = get(payload);
+        if (key == null) throw new ProtocolException("null key");
+        return key;
+    }
+
+    private static byte[][] getKeys(final ByteBuffer payload) throws ProtocolException {
+        final byte[][] keys = getList(payload);
+        for (final byte[] key : keys) {
+            if (key == null) throw new ProtocolException("null key");
+        }
+        return keys;
+    }
+
+    private ByteBuffer execute(final int requestId, final byte opcode, final ByteBuffer payload) {
+        ByteBuffer response;
+        try {
+            switch (opcode) {
+                case GET: {
+                    final byte[] value = bitcask.get(getKey(payload));
+                    response = frame(requestId, OK, size(value));
+                    put(response, value);
+                    break;
+                }
+                case PUT: {
+                    final byte[] key = getKey(payload);
+                    bitcask.put(key, get(payload));
+                    response = frame(requestId, OK, 0);
+                    break;
+                }
+                case DELETE:
+                    bitcask.put(getKey(payload), null);
+                    response = frame(requestId, OK, 0);
+                    break;
+                case MULTI_GET: {
+                    final byte[][] values = bitcask.multiGet(getKeys(payload));
+                    response = frame(requestId, OK, size(values));
+                    put(response, values);
+                    break;
+                }
+                case MULTI_PUT: {
+                    final byte[][] keys = getKeys(payload);
+                    final byte[][] values = getList(payload);
+                    if (keys.length != values.length) throw new ProtocolException("keys and values differ in length");
+                    bitcask.multiPut(keys, values);
+                    response = frame(requestId, OK, 0);
+                    break;
+                }
+                case MULTI_DELETE:
+                    bitcask.multiDelete(getKeys(payload));
+                    response = frame(requestId, OK, 0);
+                    break;
+                default:
+                    throw new ProtocolException("unknown opcode " + opcode);
+            }
+        } catch (final Exception e) {
+            LOG.debug("request {} failed", requestId, e);
+            final byte[] message = String.valueOf(e.getMessage()).getBytes(UTF_8);
+            response = frame(requestId, ERROR, size(message));
+            put(response, message);
+        }
+        response.flip();
+        return response;
+    }
+}
@@ -0,0 +1,264 @@
+package bitcask.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A non-blocking server for a pipelined request-response protocol. One selector thread accepts connections, reads
+ * and decodes requests and writes responses. The requests run on a pool of workers, since the store blocks on disk.
+ * The requests of one connection run one after another, so a client sees its own writes, and the responses are
+ * written in the order of the requests. A connection stops being read while it has too many requests in flight.
+ */
+public abstract class NioServer implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(NioServer.class);
+
+    public static final int DEFAULT_WORKERS = 16;
+    public static final int MAX_IN_FLIGHT = 1024;  // per connection
+    public static final int MAX_REQUEST_SIZE = Protocol.MAX_FRAME_SIZE + 1024;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int WORKER_BATCH = 64;  // requests of a connection per worker task
+    private static final int WRITE_BATCH = 64;  // responses per gathering write
+
+    /**
+     * A decoded request.
+     */
+    protected interface Request {
+        /**
+         * @return the response, ready to be written, i.e., flipped
+         */
+        ByteBuffer execute();
+    }
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Connection> flushes = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed = false;
+
+    protected NioServer(final InetSocketAddress address, final int workers, final String name) throws IOException {
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        this.server.bind(address);
+        this.server.configureBlocking(false);
+        this.server.register(selector, SelectionKey.OP_ACCEPT);
+        final AtomicInteger workerId = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            final Thread thread = new Thread(runnable, name + "-worker-" + workerId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.thread = new Thread(this::select, name + "-selector");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts serving, once the subclass is ready to decode requests.
+     */
+    protected void start() {
+        thread.start();
+    }
+
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Decodes a request from the start of the input, and consumes its bytes.
+     *
+     * @return null, without consuming anything, if the input does not hold a whole request yet
+     * @throws IOException if the input is malformed, which closes the connection
+     */
+    protected abstract Request decode(ByteBuffer input) throws IOException;
+
+    private final class Connection implements Runnable {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private ByteBuffer input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private boolean reading = true;  // selector thread only
+
+        private final ArrayDeque<Request> requests = new ArrayDeque<>();  // guarded by this
+        private boolean running = false;  // guarded by this
+
+        private final ConcurrentLinkedQueue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger inFlight = new AtomicInteger();  // requests read but not answered yet
+        private final AtomicBoolean flushing = new AtomicBoolean();
+
+        private Connection(final SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+
+        private void read() throws IOException {
+            if (channel.read(input) < 0) {
+                close();
+                return;
+            }
+            input.flip();
+            while (true) {
+                final Request request = decode(input);
+                if (request == null) break;
+                submit(request);
+            }
+            input.compact();
+            if (!input.hasRemaining()) {
+                if (input.capacity() >= MAX_REQUEST_SIZE) throw new Protocol.ProtocolException("request too large");
+                final ByteBuffer larger = ByteBuffer.allocate(Math.min(input.capacity() * 2, MAX_REQUEST_SIZE));
+                input.flip();
+                larger.put(input);
+                input = larger;
+            }
+            if (inFlight.get() >= MAX_IN_FLIGHT) {
+                reading = false;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        private void submit(final Request request) {
+            inFlight.incrementAndGet();
+            final boolean start;
+            synchronized (this) {
+                requests.add(request);
+                start = !running;
+                running = true;
+            }
+            if (start) workers.execute(this);
+        }
+
+        // runs the queued requests on a worker, a bounded number at a time so that other connections get their turn
+        @Override
+        public void run() {
+            for (int n = 0; n < WORKER_BATCH; n++) {
+                final Request request;
+                synchronized (this) {
+                    request = requests.poll();
+                    if (request == null) {
+                        running = false;
+                        return;
+                    }
+                }
+                output.add(request.execute());
+                if (flushing.compareAndSet(false, true)) {
+                    flushes.add(this);
+                    selector.wakeup();
+                }
+            }
+            workers.execute(this);
+        }
+
+        private void flush() throws IOException {
+            final ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];
+            while (true) {
+                int n = 0;
+                for (final ByteBuffer buffer : output) {
+                    batch[n++] = buffer;
+                    if (n == batch.length) break;
+                }
+                if (n == 0) break;
+                channel.write(batch, 0, n);
+                int written = 0;
+                while (written < n && !batch[written].hasRemaining()) {
+                    output.poll();
+                    written++;
+                }
+                inFlight.addAndGet(-written);
+                if (written < n) {
+                    // the socket buffer is full, the rest waits until the channel is writable
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (!reading && inFlight.get() < MAX_IN_FLIGHT / 2) {
+                reading = true;
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        private void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                LOG.warn("fail to close connection", e);
+            }
+        }
+    }
+
+    private void select() {
+        while (!closed) {
+            try {
+                selector.select();
+                Connection connection;
+                while ((connection = flushes.poll()) != null) {
+                    connection.flushing.set(false);
+                    if (!connection.key.isValid()) continue;
+                    try {
+                        connection.flush();
+                    } catch (final IOException e) {
+                        connection.close();
+                    }
+                }
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) connection.read();
+                        if (key.isValid() && key.isWritable()) connection.flush();
+                    } catch (final IOException e) {
+                        LOG.debug("close connection", e);
+                        connection.close();
+                    }
+                }
+            } catch (final IOException e) {
+                LOG.error("selector failure", e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = server.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        new Connection(channel);
+    }
+
+    @Override
+    public void close() throws Exception {
+        closed = true;
+        selector.wakeup();
+        thread.join();
+        for (final SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) ((Connection) key.attachment()).close();
+        }
+        server.close();
+        selector.close();
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
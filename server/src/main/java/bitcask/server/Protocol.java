@@ -0,0 +1,92 @@
+package bitcask.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The binary protocol. Every frame is length-prefixed: length (4, of the rest of the frame), request id (4),
+ * request opcode or response status (1), payload. A byte string in a payload is its length (4, -1 for null)
+ * followed by its bytes, and a list is its count (4) followed by its items.
+ *
+ * A client may pipeline any number of requests on a connection. The server executes the requests of a connection
+ * in order, and answers each with the same request id.
+ */
+public final class Protocol {
+    // request opcodes and their payloads
+    public static final byte GET = 1;  // key -> value
+    public static final byte PUT = 2;  // key, value -> empty
+    public static final byte DELETE = 3;  // key -> empty
+    public static final byte MULTI_GET = 4;  // keys -> values
+    public static final byte MULTI_PUT = 5;  // keys, values -> empty
+    public static final byte MULTI_DELETE = 6;  // keys -> empty
+
+    // response statuses
+    public static final byte OK = 0;
+    public static final byte ERROR = 1;  // message as a UTF-8 byte string
+
+    public static final int FRAME_HEADER_SIZE = 4 + 4 + 1;
+    public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    public static final class ProtocolException extends IOException {
+        public ProtocolException(final String message) {
+            super(message);
+        }
+    }
+
+    private Protocol() {}
+
+    public static int size(final byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    public static int size(final byte[][] list) {
+        int size = 4;
+        for (final byte[] bytes : list) size += size(bytes);
+        return size;
+    }
+
+    /**
+     * @return a buffer for a frame with the payload size, positioned at the start of the payload
+     */
+    public static ByteBuffer frame(final int requestId, final byte code, final int payloadSize) {
+        final ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payloadSize);
+        frame.putInt(frame.capacity() - 4);
+        frame.putInt(requestId);
+        frame.put(code);
+        return frame;
+    }
+
+    public static void put(final ByteBuffer buffer, final byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    public static void put(final ByteBuffer buffer, final byte[][] list) {
+        buffer.putInt(list.length);
+        for (final byte[] bytes : list) put(buffer, bytes);
+    }
+
+    public static byte[] get(final ByteBuffer buffer) throws ProtocolException {
+        if (buffer.remaining() < 4) throw new ProtocolException("truncated payload");
+        final int size = buffer.getInt();
+        if (size == -1) return null;
+        if (size < -1 || size > buffer.remaining()) throw new ProtocolException("invalid byte string size " + size);
+        final byte[] bytes = new byte[size];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    public static byte[][] getList(final ByteBuffer buffer) throws ProtocolException {
+        if (buffer.remaining() < 4) throw new ProtocolException("truncated payload");
+        final int count = buffer.getInt();
+        // every item takes at least its size
+        if (count < 0 || count > buffer.remaining() / 4) throw new ProtocolException("invalid list size " + count);
+        final byte[][] list = new byte[count][];
+        for (int i = 0; i < count; i++) list[i] = get(buffer);
+        return list;
+    }
+}
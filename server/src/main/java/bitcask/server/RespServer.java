@@ -0,0 +1,245 @@
+package bitcask.server;
+
+import bitcask.Bitcask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Serves a {@link Bitcask} over RESP2, the protocol of Redis, so that Redis clients and tools such as
+ * {@code redis-benchmark} can drive the store. It accepts GET, SET (with EX or PX), DEL, MGET, MSET, EXISTS, DBSIZE
+ * and PING, as arrays of bulk strings or as inline commands, and CONFIG GET answers an empty list.
+ */
+public final class RespServer extends NioServer {
+    private static final Logger LOG = LoggerFactory.getLogger(RespServer.class);
+
+    public static final int DEFAULT_PORT = 6379;
+    private static final int MAX_ARGUMENTS = 1024 * 1024;
+    private static final int MAX_LINE_SIZE = 64 * 1024;
+    private static final long INCOMPLETE = Long.MIN_VALUE;
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final Bitcask bitcask;
+
+    public RespServer(final Bitcask bitcask, final InetSocketAddress address, final int workers) throws IOException {
+        super(address, workers, "bitcask-resp");
+        this.bitcask = bitcask;
+        start();
+    }
+
+    @Override
+    protected Request decode(final ByteBuffer input) throws IOException {
+        while (input.hasRemaining()) {
+            final int start = input.position();
+            final byte[][] command = input.get(start) == '*' ? decodeArray(input) : decodeInline(input);
+            if (command == null) {
+                input.position(start);
+                return null;
+            }
+            // empty lines and arrays are skipped
+            if (command.length > 0) return () -> execute(command);
+        }
+        return null;
+    }
+
+    // the index of the next '\n', or -1 if the line is incomplete
+    private static int lineEnd(final ByteBuffer input) throws Protocol.ProtocolException {
+        for (int i = input.position(); i < input.limit(); i++) {
+            if (input.get(i) == '\n') return i;
+            if (i - input.position() >= MAX_LINE_SIZE) throw new Protocol.ProtocolException("line too long");
+        }
+        return -1;
+    }
+
+    private static long decodeNumber(final ByteBuffer input, final byte prefix) throws Protocol.ProtocolException {
+        final int end = lineEnd(input);
+        if (end < 0) return INCOMPLETE;
+        if (input.get() != prefix) throw new Protocol.ProtocolException("expected '" + (char) prefix + "'");
+        if (end - input.position() < 2 || input.get(end - 1) != '\r') throw new Protocol.ProtocolException("invalid number");
+        final boolean negative = input.get(input.position()) == '-';
+        if (negative) input.get();
+        long number = 0;
+        while (input.position() < end - 1) {
+            final byte digit = input.get();
+            if (digit < '0' || digit > '9' || number > Integer.MAX_VALUE) {
+                throw new Protocol.ProtocolException("invalid number");
+            }
+            number = number * 10 + (digit - '0');
+        }
+        input.position(end + 1);
+        return negative ? -number : number;
+    }
+
+    private static byte[][] decodeArray(final ByteBuffer input) throws Protocol.ProtocolException {
+        final long count = decodeNumber(input, (byte) '*');
+        if (count == INCOMPLETE) return null;
+        if (count > MAX_ARGUMENTS) throw new Protocol.ProtocolException("invalid multibulk length");
+        final byte[][] command = new byte[(int) Math.max(count, 0)][];
+        for (int i = 0; i < command.length; i++) {
+            final long size = decodeNumber(input, (byte) '$');
+            if (size == INCOMPLETE) return null;
+            if (size < 0 || size > Protocol.MAX_FRAME_SIZE) throw new Protocol.ProtocolException("invalid bulk length");
+            if (input.remaining() < size + 2) return null;
+            command[i] = new byte[(int) size];
+            input.get(command[i]);
+            if (input.get() != '\r' || input.get() != '\n') throw new Protocol.ProtocolException("expected CRLF");
+        }
+        return command;
+    }
+
+    private static byte[][] decodeInline(final ByteBuffer input) throws Protocol.ProtocolException {
+        final int end = lineEnd(input);
+        if (end < 0) return null;
+        final byte[] line = new byte[end - input.position()];
+        input.get(line);
+        input.get();
+        final ArrayList<byte[]> command = new ArrayList<>();
+        for (final String argument : new String(line, UTF_8).trim().split("\\s+")) {
+            if (!argument.isEmpty()) command.add(argument.getBytes(UTF_8));
+        }
+        return command.toArray(new byte[0][]);
+    }
+
+    private ByteBuffer execute(final byte[][] command) {
+        final String name = new String(command[0], US_ASCII).toUpperCase(Locale.ROOT);
+        try {
+            switch (name) {
+                case "PING":
+                    if (command.length > 2) return wrongArity(name);
+                    return command.length == 1 ? simple("PONG") : bulk(command[1]);
+                case "GET":
+                    if (command.length != 2) return wrongArity(name);
+                    return bulk(bitcask.get(command[1]));
+                case "SET": {
+                    if (command.length < 3) return wrongArity(name);
+                    if (command.length != 3 && command.length != 5) return error("ERR syntax error");
+                    long ttlMillis = 0;
+                    if (command.length == 5) {
+                        final String unit = new String(command[3], US_ASCII).toUpperCase(Locale.ROOT);
+                        if (!unit.equals("EX") && !unit.equals("PX")) return error("ERR syntax error");
+                        try {
+                            ttlMillis = Long.parseLong(new String(command[4], US_ASCII));
+                        } catch (final NumberFormatException e) {
+                            return error("ERR value is not an integer or out of range");
+                        }
+                        if (ttlMillis <= 0) return error("ERR invalid expire time in 'set' command");
+                        if (unit.equals("EX")) ttlMillis *= 1000;
+                    }
+                    bitcask.put(command[1], command[2], ttlMillis);
+                    return simple("OK");
+                }
+                case "DEL": {
+                    if (command.length < 2) return wrongArity(name);
+                    final byte[][] keys = new byte[command.length - 1][];
+                    System.arraycopy(command, 1, keys, 0, keys.length);
+                    long deleted = 0;
+                    for (final byte[] key : keys) {
+                        if (bitcask.containsKey(key)) deleted++;
+                    }
+                    bitcask.multiDelete(keys);
+                    return integer(deleted);
+                }
+                case "MGET": {
+                    if (command.length < 2) return wrongArity(name);
+                    final byte[][] keys = new byte[command.length - 1][];
+                    System.arraycopy(command, 1, keys, 0, keys.length);
+                    return array(bitcask.multiGet(keys));
+                }
+                case "MSET": {
+                    if (command.length < 3 || command.length % 2 == 0) return wrongArity(name);
+                    final byte[][] keys = new byte[command.length / 2][];
+                    final byte[][] values = new byte[keys.length][];
+                    for (int i = 0; i < keys.length; i++) {
+                        keys[i] = command[2 * i + 1];
+                        values[i] = command[2 * i + 2];
+                    }
+                    bitcask.multiPut(keys, values);
+                    return simple("OK");
+                }
+                case "EXISTS": {
+                    if (command.length < 2) return wrongArity(name);
+                    long existing = 0;
+                    for (int i = 1; i < command.length; i++) {
+                        if (bitcask.containsKey(command[i])) existing++;
+                    }
+                    return integer(existing);
+                }
+                case "DBSIZE":
+                    if (command.length != 1) return wrongArity(name);
+                    return integer(bitcask.size());
+                case "CONFIG":
+                    // there is no Redis configuration, but benchmarks ask for it
+                    if (command.length < 2) return wrongArity(name);
+                    return array(new byte[0][]);
+                default:
+                    return error("ERR unknown command '" + name + "'");
+            }
+        } catch (final Exception e) {
+            LOG.debug("command {} failed", name, e);
+            return error("ERR " + e.getMessage());
+        }
+    }
+
+    private static ByteBuffer wrongArity(final String name) {
+        return error("ERR wrong number of arguments for '" + name.toLowerCase(Locale.ROOT) + "' command");
+    }
+
+    private static ByteBuffer line(final char type, final String text) {
+        // a simple string cannot hold a line break
+        final byte[] bytes = text.replace('\r', ' ').replace('\n', ' ').getBytes(UTF_8);
+        final ByteBuffer response = ByteBuffer.allocate(1 + bytes.length + 2);
+        response.put((byte) type).put(bytes).put(CRLF);
+        response.flip();
+        return response;
+    }
+
+    private static ByteBuffer simple(final String text) {
+        return line('+', text);
+    }
+
+    private static ByteBuffer error(final String message) {
+        return line('-', message);
+    }
+
+    private static ByteBuffer integer(final long number) {
+        return line(':', Long.toString(number));
+    }
+
+    private static int bulkSize(final byte[] bytes) {
+        return bytes == null ? 5 : 1 + Integer.toString(bytes.length).length() + 2 + bytes.length + 2;
+    }
+
+    private static void putBulk(final ByteBuffer response, final byte[] bytes) {
+        if (bytes == null) {
+            response.put("$-1".getBytes(US_ASCII)).put(CRLF);
+        } else {
+            response.put(("$" + bytes.length).getBytes(US_ASCII)).put(CRLF).put(bytes).put(CRLF);
+        }
+    }
+
+    private static ByteBuffer bulk(final byte[] bytes) {
+        final ByteBuffer response = ByteBuffer.allocate(bulkSize(bytes));
+        putBulk(response, bytes);
+        response.flip();
+        return response;
+    }
+
+    private static ByteBuffer array(final byte[][] list) {
+        final byte[] header = ("*" + list.length).getBytes(US_ASCII);
+        int size = header.length + 2;
+        for (final byte[] bytes : list) size += bulkSize(bytes);
+        final ByteBuffer response = ByteBuffer.allocate(size);
+        response.put(header).put(CRLF);
+        for (final byte[] bytes : list) putBulk(response, bytes);
+        response.flip();
+        return response;
+    }
+}
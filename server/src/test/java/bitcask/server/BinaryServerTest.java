@@ -0,0 +1,144 @@
+package bitcask.server;
+
+import bitcask.Bitcask;
+import bitcask.BitcaskTest;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryServerTest {
+    private static InetSocketAddress address(final BinaryServer server) {
+        return new InetSocketAddress("localhost", server.port());
+    }
+
+    @RepeatedTest(5)
+    void testPipelined(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Map<Integer, byte[]> map = new HashMap<>();
+        final int[] keys = new int[random.nextInt(100) + 100];
+        for (int i = 0; i < keys.length; i++) keys[i] = random.nextInt();
+        try (final Bitcask bitcask = new Bitcask(tempDir);
+             final BinaryServer server = new BinaryServer(bitcask, new InetSocketAddress(0), 4);
+             final BinaryClient client = new BinaryClient(address(server))) {
+            // the requests are not awaited, a read sees the writes made before it on the connection
+            final List<CompletableFuture<byte[]>> reads = new ArrayList<>();
+            final List<byte[]> expected = new ArrayList<>();
+            for (int n = random.nextInt(5000) + 5000; n > 0; n--) {
+                final int key = keys[random.nextInt(keys.length)];
+                if (random.nextBoolean()) {
+                    final byte[] value = random.nextInt(10) == 0 ? null : BitcaskTest.genBytes(random, 1024);
+                    if (value == null) {
+                        client.delete(BitcaskTest.key(key));
+                        map.remove(key);
+                    } else {
+                        client.put(BitcaskTest.key(key), value);
+                        map.put(key, value);
+                    }
+                } else {
+                    reads.add(client.get(BitcaskTest.key(key)));
+                    expected.add(map.get(key));
+                }
+            }
+            for (int i = 0; i < reads.size(); i++) assertArrayEquals(expected.get(i), reads.get(i).get());
+            for (final int key : keys) assertArrayEquals(map.get(key), bitcask.get(BitcaskTest.key(key)));
+        }
+    }
+
+    @RepeatedTest(5)
+    void testMulti(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Map<Integer, byte[]> map = new HashMap<>();
+        final int[] keys = new int[random.nextInt(500) + 500];
+        for (int i = 0; i < keys.length; i++) keys[i] = random.nextInt();
+        try (final Bitcask bitcask = new Bitcask(tempDir);
+             final BinaryServer server = new BinaryServer(bitcask, new InetSocketAddress(0), 4);
+             final BinaryClient client = new BinaryClient(address(server))) {
+            for (int n = random.nextInt(100) + 100; n > 0; n--) {
+                final int[] batch = new int[random.nextInt(100) + 1];
+                final byte[][] batchKeys = new byte[batch.length][];
+                for (int i = 0; i < batch.length; i++) {
+                    batch[i] = keys[random.nextInt(keys.length)];
+                    batchKeys[i] = BitcaskTest.key(batch[i]);
+                }
+                switch (random.nextInt(3)) {
+                    case 0: {
+                        final byte[][] values = new byte[batch.length][];
+                        for (int i = 0; i < batch.length; i++) {
+                            values[i] = BitcaskTest.genBytes(random, 1024);
+                            map.put(batch[i], values[i]);
+                        }
+                        client.multiPut(batchKeys, values).get();
+                        break;
+                    }
+                    case 1:
+                        for (final int key : batch) map.remove(key);
+                        client.multiDelete(batchKeys).get();
+                        break;
+                    default: {
+                        final byte[][] values = client.multiGet(batchKeys).get();
+                        for (int i = 0; i < batch.length; i++) assertArrayEquals(map.get(batch[i]), values[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    @RepeatedTest(5)
+    void testConcurrent(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final AtomicBoolean flag = new AtomicBoolean(true);
+        try (final Bitcask bitcask = new Bitcask(tempDir);
+             final BinaryServer server = new BinaryServer(bitcask, new InetSocketAddress(0), 4)) {
+            // every client owns the keys with its remainder, so it can check its own reads
+            final Thread[] threads = new Thread[8];
+            for (int i = 0; i < threads.length; i++) {
+                final int remainder = i;
+                threads[i] = new Thread(() -> {
+                    try (final BinaryClient client = new BinaryClient(address(server))) {
+                        final Map<Integer, byte[]> map = new HashMap<>();
+                        for (int n = random.nextInt(1000) + 1000; n > 0; n--) {
+                            final int key = random.nextInt(100) * threads.length + remainder;
+                            if (random.nextBoolean()) {
+                                final byte[] value = BitcaskTest.genBytes(random, 256);
+                                client.put(BitcaskTest.key(key), value);
+                                map.put(key, value);
+                            } else {
+                                assertArrayEquals(map.get(key), client.get(BitcaskTest.key(key)).get());
+                            }
+                        }
+                    } catch (final Throwable t) {
+                        flag.set(false);
+                        throw new RuntimeException(t);
+                    }
+                });
+            }
+            for (final Thread thread : threads) thread.start();
+            for (final Thread thread : threads) thread.join();
+        }
+        assertTrue(flag.get());
+    }
+
+    @RepeatedTest(5)
+    void testError(@TempDir Path tempDir) throws Exception {
+        try (final Bitcask bitcask = new Bitcask(tempDir);
+             final BinaryServer server = new BinaryServer(bitcask, new InetSocketAddress(0), 4);
+             final BinaryClient client = new BinaryClient(address(server))) {
+            // an error fails its own request only, the connection stays usable
+            final byte[] key = BitcaskTest.key(1);
+            assertThrows(ExecutionException.class, () -> client.put(new byte[0x10000], key).get());
+            client.put(key, key).get();
+            assertArrayEquals(key, client.get(key).get());
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package bitcask.server;
+
+import bitcask.Bitcask;
+import bitcask.BitcaskTest;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RespServerTest {
+    // writes commands as arrays of bulk strings and reads replies, as a Redis client does
+    private static final class Client implements AutoCloseable {
+        private final Socket socket;
+        private final OutputStream output;
+        private final DataInputStream input;
+
+        private Client(final RespServer server) throws IOException {
+            this.socket = new Socket();
+            this.socket.connect(new InetSocketAddress("localhost", server.port()));
+            this.output = new BufferedOutputStream(socket.getOutputStream());
+            this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        private void send(final byte[]... command) throws IOException {
+            output.write(("*" + command.length + "\r\n").getBytes(UTF_8));
+            for (final byte[] argument : command) {
+                output.write(("$" + argument.length + "\r\n").getBytes(UTF_8));
+                output.write(argument);
+                output.write("\r\n".getBytes(UTF_8));
+            }
+        }
+
+        private void sendRaw(final String bytes) throws IOException {
+            output.write(bytes.getBytes(UTF_8));
+        }
+
+        private String readLine() throws IOException {
+            final StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = input.read()) != '\r') {
+                if (c < 0) throw new EOFException();
+                line.append((char) c);
+            }
+            assertEquals('\n', input.read());
+            return line.toString();
+        }
+
+        // a simple string as "+text", an error as "-text", an integer as a Long, a bulk string as byte[]
+        private Object read() throws IOException {
+            output.flush();
+            final String line = readLine();
+            switch (line.charAt(0)) {
+                case '+':
+                case '-':
+                    return line;
+                case ':':
+                    return Long.parseLong(line.substring(1));
+                case '$': {
+                    final int size = Integer.parseInt(line.substring(1));
+                    if (size < 0) return null;
+                    final byte[] bytes = new byte[size];
+                    input.readFully(bytes);
+                    assertEquals("", readLine());
+                    return bytes;
+                }
+                case '*': {
+                    final Object[] items = new Object[Integer.parseInt(line.substring(1))];
+                    for (int i = 0; i < items.length; i++) items[i] = read();
+                    return items;
+                }
+                default:
+                    throw new IOException("unexpected reply " + line);
+            }
+        }
+
+        private byte[] command(final byte[]... command) throws IOException {
+            send(command);
+            return (byte[]) read();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static byte[] bytes(final String string) {
+        return string.getBytes(UTF_8);
+    }
+
+    @RepeatedTest(5)
+    void testPipelined(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Map<Integer, byte[]> map = new HashMap<>();
+        final int[] keys = new int[random.nextInt(100) + 100];
+        for (int i = 0; i < keys.length; i++) keys[i] = random.nextInt();
+        try (final Bitcask bitcask = new Bitcask(tempDir);
+             final RespServer server = new RespServer(bitcask, new InetSocketAddress(0), 4);
+             final Client client = new Client(server)) {
+            // the commands are sent in batches, and the replies of a batch are read after the whole batch is sent
+            final List<Object> expected = new ArrayList<>();
+            for (int n = random.nextInt(2000) + 2000; n > 0; n--) {
+                if (expected.size() == 100) {
+                    check(client, expected);
+                    expected.clear();
+                }
+                final int key = keys[random.nextInt(keys.length)];
+                switch (random.nextInt(4)) {
+                    case 0: {
+                        final byte[] value = BitcaskTest.genBytes(random, 1024);
+                        client.send(bytes("SET"), BitcaskTest.key(key), value);
+                        expected.add("+OK");
+                        map.put(key, value);
+                        break;
+                    }
+                    case 1:
+                        client.send(bytes("DEL"), BitcaskTest.key(key));
+                        expected.add(map.remove(key) == null ? 0L : 1L);
+                        break;
+                    case 2:
+                        client.send(bytes("EXISTS"), BitcaskTest.key(key));
+                        expected.add(map.containsKey(key) ? 1L : 0L);
+                        break;
+                    default:
+                        client.send(bytes("GET"), BitcaskTest.key(key));
+                        expected.add(map.get(key));
+                }
+            }
+            client.send(bytes("DBSIZE"));
+            expected.add((long) map.size());
+            check(client, expected);
+        }
+    }
+
+    private static void check(final Client client, final List<Object> expected) throws IOException {
+        for (final Object reply : expected) {
+            if (reply instanceof byte[]) assertArrayEquals((byte[]) reply, (byte[]) client.read());
+            else assertEquals(reply, client.read());
+        }
+    }
+
+    @RepeatedTest(5)
+    void testMulti(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        final Map<Integer, byte[]> map = new HashMap<>();
+        final int[] keys = new int[random.nextInt(500) + 500];
+        for (int i = 0; i < keys.length; i++) keys[i] = random.nextInt();
+        try (final Bitcask bitcask = new Bitcask(tempDir);
+             final RespServer server = new RespServer(bitcask, new InetSocketAddress(0), 4);
+             final Client client = new Client(server)) {
+            for (int n = random.nextInt(100) + 100; n > 0; n--) {
+                final int[] batch = new int[random.nextInt(100) + 1];
+                if (random.nextBoolean()) {
+                    final byte[][] command = new byte[2 * batch.length + 1][];
+                    command[0] = bytes("MSET");
+                    for (int i = 0; i < batch.length; i++) {
+                        batch[i] = keys[random.nextInt(keys.length)];
+                        command[2 * i + 1] = BitcaskTest.key(batch[i]);
+                        command[2 * i + 2] = BitcaskTest.genBytes(random, 1024);
+                        map.put(batch[i], command[2 * i + 2]);
+                    }
+                    client.send(command);
+                    assertEquals("+OK", client.read());
+                } else {
+                    final byte[][] command = new byte[batch.length + 1][];
+                    command[0] = bytes(random.nextBoolean() ? "MGET" : "mget");
+                    for (int i = 0; i < batch.length; i++) {
+                        batch[i] = keys[random.nextInt(keys.length)];
+                        command[i + 1] = BitcaskTest.key(batch[i]);
+                    }
+                    client.send(command);
+                    final Object[] values = (Object[]) client.read();
+                    assertEquals(batch.length, values.length);
+                    for (int i = 0; i < batch.length; i++) assertArrayEquals(map.get(batch[i]), (byte[]) values[i]);
+                }
+            }
+            client.send(bytes("DBSIZE"));
+            assertEquals((long) map.size(), client.read());
+        }
+    }
+
+    @RepeatedTest(5)
+    void testFragmented(@TempDir Path tempDir) throws Exception {
+        final Random random = new Random();
+        random.setSeed(System.currentTimeMillis());
+        try (final Bitcask bitcask = new Bitcask(tempDir);
+             final RespServer server = new RespServer(bitcask, new InetSocketAddress(0), 4);
+             final Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("localhost", server.port()));
+            // the commands arrive in pieces split at random
+            final byte[] commands = bytes("*3\r\n$3\r\nSET\r\n$3\r\nkey\r\n$5\r\nvalue\r\n*2\r\n$3\r\nGET\r\n$3\r\nkey\r\n");
+            final OutputStream output = socket.getOutputStream();
+            for (int start = 0; start < commands.length; ) {
+                final int length = Math.min(random.nextInt(8) + 1, commands.length - start);
+                output.write(commands, start, length);
+                output.flush();
+                Thread.sleep(1);
+                start += length;
+            }
+            final byte[] expected = bytes("+OK\r\n$5\r\nvalue\r\n");
+            final byte[] reply = new byte[expected.length];
+            new DataInputStream(socket.getInputStream()).readFully(reply);
+            assertArrayEquals(expected, reply);
+        }
+    }
+
+    @RepeatedTest(5)
+    void testInlineAndErrors(@TempDir Path tempDir) throws Exception {
+        try (final Bitcask bitcask = new Bitcask(tempDir);
+             final RespServer server = new RespServer(bitcask, new InetSocketAddress(0), 4);
+             final Client client = new Client(server)) {
+            client.sendRaw("PING\r\n\r\nset key value\nEXISTS key missing key\r\n");
+            assertEquals("+PONG", client.read());
+            assertEquals("+OK", client.read());
+            assertEquals(2L, client.read());
+            assertArrayEquals(bytes("value"), client.command(bytes("GET"), bytes("key")));
+            assertNull(client.command(bytes("GET"), bytes("missing")));
+            client.send(bytes("GET"));
+            assertEquals("-ERR wrong number of arguments for 'get' command", client.read());
+            client.send(bytes("SET"), bytes("key"), bytes("value"), bytes("EX"));
+            assertEquals("-ERR syntax error", client.read());
+            client.send(bytes("FLUSHALL"));
+            assertEquals("-ERR unknown command 'FLUSHALL'", client.read());
+            client.send(bytes("SET"), new byte[0x10000], bytes("value"));
+            assertTrue(((String) client.read()).startsWith("-ERR"));
+            client.send(bytes("CONFIG"), bytes("GET"), bytes("save"));
+            assertEquals(0, ((Object[]) client.read()).length);
+            // the connection is still usable after the errors
+            client.send(bytes("DEL"), bytes("key"), bytes("missing"));
+            assertEquals(1L, client.read());
+            client.send(bytes("DBSIZE"));
+            assertEquals(0L, client.read());
+        }
+    }
+
+    @RepeatedTest(5)
+    void testExpire(@TempDir Path tempDir) throws Exception {
+        try (final Bitcask bitcask = new Bitcask(tempDir);
+             final RespServer server = new RespServer(bitcask, new InetSocketAddress(0), 4);
+             final Client client = new Client(server)) {
+            client.send(bytes("SET"), bytes("short"), bytes("value"), bytes("PX"), bytes("100"));
+            assertEquals("+OK", client.read());
+            client.send(bytes("set"), bytes("long"), bytes("value"), bytes("ex"), bytes("3600"));
+            assertEquals("+OK", client.read());
+            assertArrayEquals(bytes("value"), client.command(bytes("GET"), bytes("short")));
+            Thread.sleep(200);
+            assertNull(client.command(bytes("GET"), bytes("short")));
+            assertArrayEquals(bytes("value"), client.command(bytes("GET"), bytes("long")));
+            client.send(bytes("EXISTS"), bytes("short"), bytes("long"));
+            assertEquals(1L, client.read());
+            client.send(bytes("SET"), bytes("key"), bytes("value"), bytes("EX"), bytes("0"));
+            assertEquals("-ERR invalid expire time in 'set' command", client.read());
+            client.send(bytes("SET"), bytes("key"), bytes("value"), bytes("PX"), bytes("soon"));
+            assertEquals("-ERR value is not an integer or out of range", client.read());
+            client.send(bytes("SET"), bytes("key"), bytes("value"), bytes("KEEPTTL"), bytes("1"));
+            assertEquals("-ERR syntax error", client.read());
+        }
+    }
+}